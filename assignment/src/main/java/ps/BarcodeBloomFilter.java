@@ -0,0 +1,136 @@
+package ps;
+
+import java.util.function.Supplier;
+
+/**
+ * Compact set of bar codes that may answer "maybe" for a bar code that was
+ * never added, but never "no" for one that was.
+ *
+ * A scanner misread is almost never a catalog bar code, so checking this
+ * filter before a lookup stops most misreads at the lane. With 10 bits per
+ * bar code about 1% of the unknown bar codes get through; those are caught by
+ * the lookup as before.
+ *
+ * A filter does not change once built: {@link #with} returns an extended
+ * copy, so a filter can be read from any thread once it is safely published
+ * (e.g. with the catalog snapshot it belongs to, see
+ * {@link VersionedCatalog#keepBarcodeFilter}).
+ */
+final class BarcodeBloomFilter {
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashes;
+    private final int expected;
+    private final double falsePositiveRate;
+    private final int added;
+
+    private BarcodeBloomFilter(int expected, double falsePositiveRate) {
+        if (expected < 1 || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("need expected > 0 and 0 < falsePositiveRate < 1");
+        }
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.bits = new long[(bitCount + 63) >>> 6];
+        this.hashes = Math.max(1, (int) Math.round((double) bitCount / expected * ln2));
+        this.expected = expected;
+        this.falsePositiveRate = falsePositiveRate;
+        this.added = 0;
+    }
+
+    private BarcodeBloomFilter(BarcodeBloomFilter base, int more) {
+        this.bits = base.bits.clone();
+        this.bitCount = base.bitCount;
+        this.hashes = base.hashes;
+        this.expected = base.expected;
+        this.falsePositiveRate = base.falsePositiveRate;
+        this.added = base.added + more;
+    }
+
+    /**
+     * Create a filter holding the given bar codes.
+     *
+     * @param barcodes          to add
+     * @param falsePositiveRate wanted rate of unknown bar codes let through
+     * @return the filter
+     */
+    static BarcodeBloomFilter of(int[] barcodes, double falsePositiveRate) {
+        BarcodeBloomFilter filter = new BarcodeBloomFilter(Math.max(1, barcodes.length), falsePositiveRate);
+        return filter.with(barcodes);
+    }
+
+    /**
+     * Copy of this filter with more bar codes. Once more bar codes are
+     * added than the filter was sized for, it is rebuilt at twice the size
+     * from all the given bar codes, the false positive rate stays.
+     *
+     * @param barcodes to add
+     * @param all      supplies all bar codes of the catalog, for a rebuild
+     * @return the extended filter
+     */
+    BarcodeBloomFilter with(int[] barcodes, Supplier<int[]> all) {
+        if (added + barcodes.length > expected) {
+            int[] every = all.get();
+            return new BarcodeBloomFilter(Math.max(1, 2 * every.length), falsePositiveRate).with(every);
+        }
+        return with(barcodes);
+    }
+
+    private BarcodeBloomFilter with(int[] barcodes) {
+        BarcodeBloomFilter copy = new BarcodeBloomFilter(this, barcodes.length);
+        for (int barcode : barcodes) {
+            copy.add(barcode);
+        }
+        return copy;
+    }
+
+    private void add(int barcode) {
+        long h = mix(barcode);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Whether a bar code may have been added.
+     *
+     * @param barcode to test
+     * @return false if the bar code was certainly not added
+     */
+    boolean mightContain(int barcode) {
+        long h = mix(barcode);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Size of the filter.
+     *
+     * @return number of bits
+     */
+    int bitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Finalizer of SplitMix64: spreads nearby bar codes over all 64 bits, the
+     * two halves give the hashes for double hashing.
+     */
+    private static long mix(int barcode) {
+        long z = barcode * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,161 @@
+package ps;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Checks at the lane whether a scanned bar code can be a product at all, so
+ * a misread is rejected without a round trip to the sales service.
+ *
+ * A bar code passes when all configured checks pass:
+ * <ul>
+ * <li>the check digit (the last digit) matches the other digits, computed as
+ * for EAN; an int holds at most 10 digits, so this covers EAN-8 and shorter
+ * codes, not EAN-13 or UPC-A,</li>
+ * <li>it lies in one of the configured ranges, e.g. the company prefixes in
+ * use,</li>
+ * <li>the Bloom filter of catalog bar codes may contain it; the filter is
+ * read on every check, so it can follow the current catalog snapshot.</li>
+ * </ul>
+ * Validators are immutable; the with methods return a new validator with one
+ * check added. Checking does not allocate.
+ */
+final class BarcodeValidator {
+
+    /**
+     * Accepts every bar code.
+     */
+    static final BarcodeValidator ACCEPT_ALL = new BarcodeValidator(false, new int[0], null);
+
+    private final boolean checkDigit;
+    private final int[] ranges;
+    private final Supplier<BarcodeBloomFilter> known;
+
+    private BarcodeValidator(boolean checkDigit, int[] ranges, Supplier<BarcodeBloomFilter> known) {
+        this.checkDigit = checkDigit;
+        this.ranges = ranges;
+        this.known = known;
+    }
+
+    /**
+     * Also require a valid check digit, see {@link #hasValidCheckDigit}.
+     *
+     * @return new validator
+     */
+    BarcodeValidator withCheckDigit() {
+        return new BarcodeValidator(true, ranges, known);
+    }
+
+    /**
+     * Also accept the bar codes in a range. Once a range is given, bar codes
+     * outside all ranges are rejected.
+     *
+     * @param from lowest bar code of the range
+     * @param to   highest bar code of the range, inclusive
+     * @return new validator
+     */
+    BarcodeValidator withRange(int from, int to) {
+        if (from > to) {
+            throw new IllegalArgumentException("empty range " + from + ".." + to);
+        }
+        int[] more = Arrays.copyOf(ranges, ranges.length + 2);
+        more[ranges.length] = from;
+        more[ranges.length + 1] = to;
+        return new BarcodeValidator(checkDigit, more, known);
+    }
+
+    /**
+     * Also require the bar code to be in the catalog, as far as the filter
+     * can tell.
+     *
+     * @param known filter of the catalog bar codes
+     * @return new validator
+     */
+    BarcodeValidator withKnownBarcodes(BarcodeBloomFilter known) {
+        return withKnownBarcodes(() -> known);
+    }
+
+    /**
+     * Also require the bar code to be in the catalog, as far as the filter
+     * of its current snapshot can tell. Bar codes are not checked against the
+     * catalog while it keeps no filter.
+     *
+     * @param catalog keeping a filter, see {@link VersionedCatalog#keepBarcodeFilter}
+     * @return new validator
+     */
+    BarcodeValidator withKnownBarcodes(VersionedCatalog catalog) {
+        return withKnownBarcodes(() -> catalog.snapshot().barcodeFilter());
+    }
+
+    private BarcodeValidator withKnownBarcodes(Supplier<BarcodeBloomFilter> known) {
+        return new BarcodeValidator(checkDigit, ranges, known);
+    }
+
+    /**
+     * Whether the bar code passes all checks.
+     *
+     * @param barcode as scanned
+     * @return false if the bar code cannot be a product
+     */
+    boolean isValid(int barcode) {
+        if (checkDigit && !hasValidCheckDigit(barcode)) {
+            return false;
+        }
+        if (ranges.length > 0 && !inRange(barcode)) {
+            return false;
+        }
+        if (known == null) {
+            return true;
+        }
+        BarcodeBloomFilter filter = known.get();
+        return filter == null || filter.mightContain(barcode);
+    }
+
+    /**
+     * EAN check: counting from the check digit to the left, the digits are
+     * weighed 1, 3, 1, 3, ... and the weighed sum must be a multiple of ten.
+     * Leading zeros do not change the sum, so this holds for EAN-8 and for
+     * the shorter codes alike. EAN-13 and UPC-A codes do not fit an int bar
+     * code.
+     *
+     * @param barcode to check
+     * @return true if the check digit matches
+     */
+    static boolean hasValidCheckDigit(int barcode) {
+        if (barcode <= 0) {
+            return false;
+        }
+        int sum = 0;
+        boolean odd = true;
+        for (int rest = barcode; rest > 0; rest /= 10) {
+            sum += (rest % 10) * (odd ? 1 : 3);
+            odd = !odd;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Append the check digit to a bar code without one.
+     *
+     * @param payload the digits before the check digit
+     * @return payload followed by its check digit
+     */
+    static int appendCheckDigit(int payload) {
+        int sum = 0;
+        boolean odd = false;
+        for (int rest = payload; rest > 0; rest /= 10) {
+            sum += (rest % 10) * (odd ? 1 : 3);
+            odd = !odd;
+        }
+        return payload * 10 + (10 - sum % 10) % 10;
+    }
+
+    private boolean inRange(int barcode) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (barcode >= ranges[i] && barcode <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
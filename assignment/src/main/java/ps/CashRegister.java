@@ -4,6 +4,8 @@ import java.time.Clock;
 import java.time.LocalDate;
 import java.time.Period;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +18,11 @@ import java.util.function.Function;
  */
 class CashRegister {
 
+    /**
+     * Number of scans that can be undone with {@link #voidLast()}.
+     */
+    static final int VOID_HISTORY = 64;
+
     private final Clock clock;
     private final Printer printer;
     private final UI ui;
@@ -28,6 +35,14 @@ class CashRegister {
     private int lastSalesPrice = 0;
     private List<SalesRecord> list = new ArrayList<>();
     private List<SalesRecord> list2 = new ArrayList<>();
+    private ScanPrefetcher prefetcher = null;
+    private PromotionEngine promotionEngine = null;
+    private ReceiptHistory receiptHistory = null;
+    private BarcodeValidator barcodeValidator = null;
+    private Map<Integer, Product> productsByBarcode = new HashMap<>();
+    private final Product[] recentScans = new Product[VOID_HISTORY];
+    private int recentCount = 0;
+    private int recentNext = 0;
 
     // Declare a field to keep a salesCache, which is a mapping between a Product and a SalesRecord.
     // When a product gets scanned multiple times, the quantity of the salesRecord is increased. 
@@ -54,8 +69,9 @@ class CashRegister {
 
     /**
      * The scan method is triggered by scanning a product by the cashier.
-     * Get the product from the salesService. If the product can't be found, an UnknownProductException is thrown and the
-     * error message from the exception is shown on the display (ui).
+     * If a barcode validator is set, a bar code it rejects is a misread and the error message is shown on the display
+     * (ui) right away, without asking the salesService. Otherwise get the product from the salesService; if it can't be
+     * found, the error message is shown as well.
      * If found, check if there is a salesRecord for this product already. If not, create one. If it exists, update the quantity.
      * In case a perishable product was scanned, the cashier should get a calendar on his/her display.
      * The product is displayed on the display.
@@ -63,32 +79,194 @@ class CashRegister {
      * @param barcode
      */
     public void scan(int barcode) {
-        try {
-            this.lastScanned = this.salesService.lookupProduct(barcode);
-            this.ui.displayProduct(this.lastScanned);
-
-            if (this.salesCache.containsKey(this.lastScanned)) {
-                this.salesCache.get(lastScanned).increaseQuantity(1);
-            } else if (this.salesCacheP.containsKey(this.lastScanned)) {
-                this.salesCacheP.get(lastScanned).increaseQuantity(1);
+        if (this.barcodeValidator != null && !this.barcodeValidator.isValid(barcode)) {
+            this.ui.displayErrorMessage("This product is unknown");
+            return;
+        }
+        Product found = findProduct(barcode);
+        if (found == null) {
+            this.ui.displayErrorMessage("This product is unknown");
+            return;
+        }
+        this.lastScanned = found;
+        this.ui.displayProduct(this.lastScanned);
+
+        if (this.salesCache.containsKey(this.lastScanned)) {
+            this.salesCache.get(lastScanned).increaseQuantity(1);
+        } else if (this.salesCacheP.containsKey(this.lastScanned)) {
+            this.salesCacheP.get(lastScanned).increaseQuantity(1);
+        } else {
+            SalesRecord sale = new SalesRecord(barcode, LocalDate.now(this.clock), this.lastScanned.getPrice());
+            if (this.lastScanned.isPerishable()) {
+                this.salesCacheP.put(this.lastScanned, sale);
+                this.ui.displayCalendar();
             } else {
-                if (this.lastScanned == null) {
-                    throw new UnknownProductException("This product is unknown");
-                } else {
-                    SalesRecord sale = new SalesRecord(barcode, LocalDate.now(this.clock), this.lastScanned.getPrice());
-                    if (this.lastScanned.isPerishable()) {
-                        this.salesCacheP.put(this.lastScanned, sale);
-                        this.ui.displayCalendar();
-                    } else {
-                        this.salesCache.put(this.lastScanned, sale);
-                    }
-                }
+                this.salesCache.put(this.lastScanned, sale);
+            }
+            this.productsByBarcode.put(this.lastScanned.getBarcode(), this.lastScanned);
+        }
+        this.recentScans[this.recentNext] = this.lastScanned;
+        this.recentNext = (this.recentNext + 1) % VOID_HISTORY;
+        this.recentCount = Math.min(this.recentCount + 1, VOID_HISTORY);
+        if (this.promotionEngine != null) {
+            this.promotionEngine.lineChanged(salesRecordOf(this.lastScanned));
+        }
+        if (this.prefetcher != null) {
+            this.prefetcher.scanned(barcode);
+        }
+    }
+
+    /**
+     * Undo the last scan: the quantity of the product scanned last is
+     * decreased by one and its line is removed when none are left. Can be
+     * repeated for the previous scans, up to VOID_HISTORY scans back.
+     * Afterwards the product scanned before is the last scanned product and
+     * is shown on the display; when the basket is empty the display says so.
+     */
+    public void voidLast() {
+        while (this.recentCount > 0) {
+            this.recentNext = (this.recentNext + VOID_HISTORY - 1) % VOID_HISTORY;
+            Product product = this.recentScans[this.recentNext];
+            this.recentScans[this.recentNext] = null;
+            this.recentCount--;
+            // skip scans of lines that were voided or decreased away since
+            if (salesRecordOf(product) != null) {
+                decrease(product, 1);
+                refreshLastScanned();
+                return;
+            }
+        }
+        this.ui.displayErrorMessage("Nothing to void");
+    }
+
+    /**
+     * Remove the line of a product from the basket, whatever its quantity.
+     * The order of the remaining lines is kept.
+     *
+     * @param barcode of the product to remove
+     */
+    public void voidLine(int barcode) {
+        Product product = this.productsByBarcode.get(barcode);
+        if (product == null) {
+            this.ui.displayErrorMessage("This product is not in the basket");
+            return;
+        }
+        decrease(product, salesRecordOf(product).getQuantity());
+        refreshLastScanned();
+    }
+
+    /**
+     * Decrease the quantity of a product in the basket. The line is removed
+     * when the quantity reaches zero.
+     *
+     * @param barcode  of the product
+     * @param decrease number of items to take off, at least 1
+     */
+    public void decreaseQuantity(int barcode, int decrease) {
+        Product product = this.productsByBarcode.get(barcode);
+        if (product == null) {
+            this.ui.displayErrorMessage("This product is not in the basket");
+            return;
+        }
+        if (decrease < 1) {
+            throw new IllegalArgumentException("decrease must be at least 1");
+        }
+        decrease(product, Math.min(decrease, salesRecordOf(product).getQuantity()));
+        refreshLastScanned();
+    }
+
+    private void decrease(Product product, int decrease) {
+        SalesRecord sale = salesRecordOf(product);
+        if (sale.getQuantity() > decrease) {
+            sale.decreaseQuantity(decrease);
+            if (this.promotionEngine != null) {
+                this.promotionEngine.lineChanged(sale);
             }
-        } catch (UnknownProductException e) {
-            ui.displayErrorMessage("This product is unknown");
+            return;
+        }
+        // LinkedHashMap removes in constant time and keeps the order of the others
+        if (product.isPerishable()) {
+            this.salesCacheP.remove(product);
+        } else {
+            this.salesCache.remove(product);
+        }
+        this.productsByBarcode.remove(product.getBarcode());
+        if (this.promotionEngine != null) {
+            this.promotionEngine.lineRemoved(product.getBarcode());
         }
     }
 
+    /**
+     * The last scanned product is the most recent scan still in the basket.
+     */
+    private void refreshLastScanned() {
+        this.lastScanned = null;
+        for (int i = 1; i <= this.recentCount; i++) {
+            Product product = this.recentScans[(this.recentNext + VOID_HISTORY - i) % VOID_HISTORY];
+            if (salesRecordOf(product) != null) {
+                this.lastScanned = product;
+                this.ui.displayProduct(product);
+                return;
+            }
+        }
+        // do not leave a voided product on the display
+        if (this.salesCache.isEmpty() && this.salesCacheP.isEmpty()) {
+            this.ui.displayErrorMessage("The basket is empty");
+        } else {
+            this.ui.displayErrorMessage("No product selected");
+        }
+    }
+
+    /**
+     * Use a prefetcher to look up products, so that the products usually
+     * scanned next are already fetched while the cashier picks them up.
+     *
+     * @param prefetcher to use, null to look up directly at the salesService
+     */
+    void setPrefetcher(ScanPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Apply multi-buy and bundle offers to the basket. The discounts are
+     * printed on the receipt and registered as salesRecords at finalization.
+     *
+     * @param promotionEngine to use, null for no promotions
+     */
+    void setPromotionEngine(PromotionEngine promotionEngine) {
+        this.promotionEngine = promotionEngine;
+    }
+
+    /**
+     * Keep every finalized transaction as a receipt in the given history.
+     *
+     * @param receiptHistory to use, null to keep no receipts
+     */
+    void setReceiptHistory(ReceiptHistory receiptHistory) {
+        this.receiptHistory = receiptHistory;
+    }
+
+    /**
+     * Reject impossible bar codes at the lane, before any lookup.
+     *
+     * @param barcodeValidator to use, null to look up every bar code
+     */
+    void setBarcodeValidator(BarcodeValidator barcodeValidator) {
+        this.barcodeValidator = barcodeValidator;
+    }
+
+    private SalesRecord salesRecordOf(Product product) {
+        SalesRecord sale = this.salesCache.get(product);
+        return sale != null ? sale : this.salesCacheP.get(product);
+    }
+
+    private Product findProduct(int barcode) {
+        if (this.prefetcher != null) {
+            return this.prefetcher.findProduct(barcode);
+        }
+        return this.salesService.findProduct(barcode);
+    }
+
     /**
      * Submit the sales to the sales service, finalizing the sales transaction.
      * All salesRecords in the salesCache are stored (one-by-one) in the salesService.
@@ -118,8 +296,30 @@ class CashRegister {
             this.salesService.sold(sales.getValue());
         }
 
+        List<SalesRecord> discounts = List.of();
+        if (this.promotionEngine != null) {
+            discounts = this.promotionEngine.discountRecords(LocalDate.now(this.clock));
+            for (SalesRecord discount : discounts) {
+                this.salesService.sold(discount);
+            }
+            this.promotionEngine.clear();
+        }
+        if (this.receiptHistory != null) {
+            List<SalesRecord> lines = new ArrayList<>(this.salesCacheP.values());
+            lines.addAll(this.salesCache.values());
+            lines.addAll(discounts);
+            this.receiptHistory.record(lines);
+        }
+        if (this.prefetcher != null) {
+            this.prefetcher.basketFinished();
+        }
+
         this.salesCache.clear();
         this.salesCacheP.clear();
+        this.productsByBarcode.clear();
+        Arrays.fill(this.recentScans, null);
+        this.recentCount = 0;
+        this.recentNext = 0;
         this.lastBBDate = null;
         this.lastSalesPrice = 0;
         this.lastScanned = null;
@@ -133,11 +333,12 @@ class CashRegister {
      * This method consults the clock to see if the product is eligible for a
      * price reduction because it is near or at its best before date.
      * <p>
-     * Precondition is that the last scanned product is the perishable product.
-     * You don't need to check that in your code.
+     * The correction is ignored when the last scanned product is not a
+     * perishable in the basket, e.g. after voiding a perishable scanned after
+     * a non-perishable one.
      * <p>
      * To find the number of days from now till the bestBeforeDate, use
-     * LocalDate.now(clock).until(bestBeforeDate).getDays();
+     * PricingTable.daysLeft(LocalDate.now(clock), bestBeforeDate);
      * <p>
      * Depending on the number of days, update the price in the salesRecord folowing the
      * pricing strategy as described in the assignment
@@ -153,17 +354,14 @@ class CashRegister {
             throw new UnknownBestBeforeException("Best before date must not be null!");
         }
 
-        int salesPrice = 0;
-
-        if (this.lastScanned != null) {
-            if (LocalDate.now(this.clock).until(bestBeforeDate).getDays() >= 2) {
-                salesPrice = this.lastScanned.getPrice();
-            } else if (LocalDate.now(this.clock).until(bestBeforeDate).getDays() == 1) {
-                salesPrice = (int) ((double) this.lastScanned.getPrice() * 0.65);
-            } else if (LocalDate.now(this.clock).until(bestBeforeDate).getDays() == 0) {
-                salesPrice = (int) ((double) this.lastScanned.getPrice() * 0.35);
+        SalesRecord line = this.lastScanned == null ? null : this.salesCacheP.get(this.lastScanned);
+        if (line != null) {
+            int daysLeft = PricingTable.daysLeft(LocalDate.now(this.clock), bestBeforeDate);
+            line.setSalesPrice(PricingTable.STANDARD.price(this.lastScanned.getPrice(), daysLeft));
+            line.setBestBeforeDate(bestBeforeDate);
+            if (this.promotionEngine != null) {
+                this.promotionEngine.lineChanged(line);
             }
-            this.salesCacheP.get(this.lastScanned).setSalesPrice(salesPrice);
         }
 
         this.lastBBDate = null;
@@ -173,23 +371,40 @@ class CashRegister {
 
     }
 
+    /**
+     * Format one receipt line.
+     *
+     * @param product     sold
+     * @param salesRecord holding sales price and quantity
+     * @return the line to print
+     */
+    static String receiptLine(Product product, SalesRecord salesRecord) {
+        return "Product: " + product.getDescription() + ", Sales price: " + salesRecord.getSalesPrice() + ", Quantity: " + salesRecord.getQuantity();
+    }
+
     /**
      * Print the receipt for all the sold products, to hand the receipt to the
      * customer. The receipt contains lines containing: the product description,
      * the (possibly reduced) sales price per piece and the quantity, separated by
      * a tab.
      * The order of printing is the order of scanning, however Perishable
-     * products are printed first. The non-perishables afterwards.
+     * products are printed first. The non-perishables afterwards. Applied
+     * promotions follow with their discount.
      */
     public void printReceipt() {
 
         for (Map.Entry<Product, SalesRecord> sales : this.salesCacheP.entrySet()) {
-            this.printer.println("Product: " + sales.getKey().getDescription() + ", Sales price: " + sales.getValue().getSalesPrice() + ", Quantity: " + sales.getValue().getQuantity());
+            this.printer.println(receiptLine(sales.getKey(), sales.getValue()));
         }
         for (Map.Entry<Product, SalesRecord> sales : this.salesCache.entrySet()) {
-            this.printer.println("Product: " + sales.getKey().getDescription() + ", Sales price: " + sales.getValue().getSalesPrice() + ", Quantity: " + sales.getValue().getQuantity());
+            this.printer.println(receiptLine(sales.getKey(), sales.getValue()));
 
         }
+        if (this.promotionEngine != null) {
+            for (Map.Entry<Promotion, Integer> discount : this.promotionEngine.getDiscounts().entrySet()) {
+                this.printer.println("Promotion: " + discount.getKey().getDescription() + ", Discount: " + discount.getValue());
+            }
+        }
 
         //this.salesCache.clear();
         /*int j;
@@ -0,0 +1,104 @@
+package ps;
+
+/**
+ * One change to the catalog: a new product, a new price or a removed product.
+ * Deltas arrive in batches and are applied by a {@link VersionedCatalog}.
+ */
+public class CatalogDelta {
+
+    /**
+     * Kind of change.
+     */
+    public enum Kind {
+        INSERT, UPDATE_PRICE, DELETE
+    }
+
+    private final Kind kind;
+    private final int barcode;
+    private final Product product;
+    private final int price;
+
+    private CatalogDelta(Kind kind, int barcode, Product product, int price) {
+        this.kind = kind;
+        this.barcode = barcode;
+        this.product = product;
+        this.price = price;
+    }
+
+    /**
+     * Add a product, or replace the product with the same bar code.
+     *
+     * @param product to add
+     * @return the delta
+     */
+    public static CatalogDelta insert(Product product) {
+        return new CatalogDelta(Kind.INSERT, product.getBarcode(), product, product.getPrice());
+    }
+
+    /**
+     * Change the catalogue price of a product.
+     *
+     * @param barcode of the product
+     * @param price   new catalogue price in cents
+     * @return the delta
+     */
+    public static CatalogDelta updatePrice(int barcode, int price) {
+        return new CatalogDelta(Kind.UPDATE_PRICE, barcode, null, price);
+    }
+
+    /**
+     * Remove a product.
+     *
+     * @param barcode of the product
+     * @return the delta
+     */
+    public static CatalogDelta delete(int barcode) {
+        return new CatalogDelta(Kind.DELETE, barcode, null, 0);
+    }
+
+    /**
+     * getKind of change.
+     *
+     * @return kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * getBarcode of the product changed.
+     *
+     * @return bar code
+     */
+    public int getBarcode() {
+        return barcode;
+    }
+
+    /**
+     * getProduct to insert.
+     *
+     * @return product, null unless this is an insert
+     */
+    public Product getProduct() {
+        return product;
+    }
+
+    /**
+     * getPrice, the new catalogue price.
+     *
+     * @return price in cents
+     */
+    public int getPrice() {
+        return price;
+    }
+
+    /**
+     * Textual representation of the delta.
+     *
+     * @return kind, bar code and price
+     */
+    @Override
+    public String toString() {
+        return "CatalogDelta{" + kind + ", barcode=" + barcode + ", price=" + price + '}';
+    }
+}
@@ -0,0 +1,89 @@
+package ps;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * SalesService decorator that hands out one canonical Product instance per
+ * bar code.
+ *
+ * A sales service that builds a fresh Product for every lookup (as a remote or
+ * deserializing implementation would) otherwise leaves a new object on the
+ * heap for every scan. The pool only holds weak references, so products that
+ * are no longer in any basket can be collected. When the catalog returns a
+ * product whose content differs from the pooled one (e.g. a price change), the
+ * fresh instance becomes the canonical one.
+ *
+ * Instances may be shared by several cash registers.
+ */
+class InterningSalesService implements SalesService {
+
+    private final SalesService delegate;
+    private final Map<Product, WeakReference<Product>> pool = new WeakHashMap<>();
+
+    /**
+     * Wrap a sales service.
+     *
+     * @param delegate to do the actual lookups and registrations
+     */
+    InterningSalesService(SalesService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Product lookupProduct(int barcode) throws UnknownProductException {
+        Product found = delegate.lookupProduct(barcode);
+        if (found == null) {
+            return null;
+        }
+        return intern(found);
+    }
+
+    @Override
+    public Product findProduct(int barcode) {
+        Product found = delegate.findProduct(barcode);
+        return found == null ? null : intern(found);
+    }
+
+    @Override
+    public void sold(SalesRecord salesRecord) {
+        delegate.sold(salesRecord);
+    }
+
+    /**
+     * Get the canonical instance for the given product.
+     *
+     * @param product to intern
+     * @return the pooled instance equal to product, or product itself if it
+     * is new or its content changed
+     */
+    synchronized Product intern(Product product) {
+        WeakReference<Product> ref = pool.get(product);
+        Product canonical = ref == null ? null : ref.get();
+        if (canonical != null && sameContent(canonical, product)) {
+            return canonical;
+        }
+        // remove first, WeakHashMap keeps the old key on put
+        pool.remove(product);
+        pool.put(product, new WeakReference<>(product));
+        return product;
+    }
+
+    /**
+     * Number of products currently held in the pool.
+     *
+     * @return pool size
+     */
+    synchronized int size() {
+        return pool.size();
+    }
+
+    private static boolean sameContent(Product a, Product b) {
+        return a.getPrice() == b.getPrice()
+                && a.isPerishable() == b.isPerishable()
+                && Objects.equals(a.getShortName(), b.getShortName())
+                && Objects.equals(a.getDescription(), b.getDescription());
+    }
+}
@@ -0,0 +1,160 @@
+package ps;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Start of a lane, tuned for time to first scan.
+ *
+ * {@link #openLane} wires a CashRegister with a Printer and UI opening in the
+ * background and a {@link LazySalesService}, so the register takes scans from
+ * the warm set while devices and the full catalog are still coming up.
+ *
+ * The main method is the training run for the class data sharing archive
+ * (mvn -Pappcds package, see the pom): it opens a lane on a generated catalog,
+ * reports the time to first scan since JVM start and then checks out a
+ * number of baskets, so all classes on the scan, print and finalize paths are
+ * loaded and end up in the archive. Start a lane with
+ * {@code java -XX:SharedArchiveFile=target/perishablesales.jsa -cp target/perishablesales-1.0-SNAPSHOT.jar ps.LaneStartup}
+ * to use it.
+ *
+ * The time to first scan is the tracked startup benchmark. It only means
+ * something in a fresh JVM, so it is measured here and not in a unit test:
+ * the appcds profile starts a lane once without and once with the archive and
+ * each run appends its figure to target/startup.properties, given as second
+ * argument together with a label as third.
+ */
+public final class LaneStartup {
+
+    static final int CATALOG_SIZE = 100_000;
+    static final int WARM_SIZE = 500;
+    static final int FIRST_BARCODE = 8_710_000;
+
+    private LaneStartup() {
+    }
+
+    /**
+     * Open a lane.
+     *
+     * @param clock    wall clock
+     * @param printer  opens the receipt printer
+     * @param ui       opens the UI
+     * @param warm     answers lookups while the catalog loads
+     * @param catalog  loads the full catalog
+     * @param fallback registers the sales when the catalog cannot be loaded
+     * @param executor to open the devices and load the catalog on
+     * @return a register that accepts scans right away
+     */
+    static CashRegister openLane(Clock clock, Supplier<? extends Printer> printer, Supplier<? extends UI> ui,
+            SalesService warm, Supplier<? extends SalesService> catalog, SalesService fallback, Executor executor) {
+        UI display = Lazy.ui(ui, executor);
+        Printer receipts = Lazy.printer(printer, executor);
+        return new CashRegister(clock, receipts, display, new LazySalesService(warm, catalog, executor, fallback));
+    }
+
+    /**
+     * Training run.
+     *
+     * @param args optional number of baskets to check out, default 50, then
+     *             optionally the file to append the time to first scan to and
+     *             the label to record it under
+     * @throws UnknownBestBeforeException never, all best before dates are given
+     * @throws IOException                if the report cannot be written
+     */
+    public static void main(String[] args) throws UnknownBestBeforeException, IOException {
+        int baskets = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        AtomicInteger sold = new AtomicInteger();
+        SalesService sink = new SalesService() {
+            @Override
+            public Product lookupProduct(int barcode) throws UnknownProductException {
+                throw new UnknownProductException("This product is unknown");
+            }
+
+            @Override
+            public void sold(SalesRecord salesRecord) {
+                sold.incrementAndGet();
+            }
+        };
+        AtomicInteger printed = new AtomicInteger();
+        long loadStart = System.nanoTime();
+        AtomicLong loadedAfter = new AtomicLong();
+        Clock clock = Clock.systemDefaultZone();
+
+        CashRegister register = openLane(clock, () -> line -> printed.incrementAndGet(), ConsoleUI::new,
+                catalog(sink, WARM_SIZE), () -> {
+                    VersionedCatalog full = catalog(sink, CATALOG_SIZE);
+                    loadedAfter.set(System.nanoTime() - loadStart);
+                    return full;
+                }, sink, ForkJoinPool.commonPool());
+        register.scan(FIRST_BARCODE);
+        long scannedAt = System.currentTimeMillis();
+        // read the start time only now, the management classes take a while to load
+        Duration firstScan = Duration.ofMillis(scannedAt - ManagementFactory.getRuntimeMXBean().getStartTime());
+
+        for (int b = 0; b < baskets; b++) {
+            for (int i = 0; i < 12; i++) {
+                int barcode = FIRST_BARCODE + (b * 7_919 + i * 104_729) % CATALOG_SIZE;
+                register.scan(barcode);
+                if (barcode % 10 < 3) {
+                    register.correctSalesPrice(LocalDate.now(clock).plusDays(i % 4));
+                }
+            }
+            register.printReceipt();
+            register.finalizeSalesTransaction();
+        }
+        System.out.println("time to first scan: " + firstScan.toMillis() + " ms");
+        if (args.length > 2) {
+            Files.writeString(Path.of(args[1]), args[2] + ".timeToFirstScanMillis=" + firstScan.toMillis()
+                    + System.lineSeparator(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        System.out.println("catalog loaded after: " + Duration.ofNanos(loadedAfter.get()).toMillis() + " ms");
+        System.out.println(baskets + " baskets, " + printed.get() + " lines printed, " + sold.get() + " sold");
+    }
+
+    /**
+     * Generated catalog, 30% perishables.
+     */
+    private static VersionedCatalog catalog(SalesService sink, int size) {
+        VersionedCatalog catalog = new VersionedCatalog(sink);
+        List<CatalogDelta> load = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int barcode = FIRST_BARCODE + i;
+            load.add(CatalogDelta.insert(new Product("p" + i, "Product " + i, 50 + i % 1_000, barcode,
+                    barcode % 10 < 3)));
+        }
+        catalog.apply(load);
+        return catalog;
+    }
+
+    /**
+     * Headless stand-in for the lane display, errors go to standard error.
+     */
+    private static final class ConsoleUI implements UI {
+
+        @Override
+        public void displayProduct(Product p) {
+        }
+
+        @Override
+        public void displayCalendar() {
+        }
+
+        @Override
+        public void displayErrorMessage(String message) {
+            System.err.println(message);
+        }
+    }
+}
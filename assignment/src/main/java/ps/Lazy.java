@@ -0,0 +1,105 @@
+package ps;
+
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Value that is created on first use, once, also when several threads ask at
+ * the same time.
+ *
+ * The factories wrap a Printer or UI so a cash register can be constructed
+ * and accept its first scan before the (slow to open) device is ready. The
+ * device starts opening in the background right away; a first use before it
+ * is ready waits for it.
+ *
+ * @param <T> type of the value
+ */
+final class Lazy<T> implements Supplier<T> {
+
+    private Supplier<? extends T> factory;
+    private volatile T value;
+
+    /**
+     * Create a lazy value.
+     *
+     * @param factory called at most once, on the first get
+     */
+    Lazy(Supplier<? extends T> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public T get() {
+        T result = value;
+        if (result == null) {
+            synchronized (this) {
+                result = value;
+                if (result == null) {
+                    result = factory.get();
+                    value = result;
+                    factory = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start creating the value in the background.
+     *
+     * @param executor to create it on
+     * @return this
+     */
+    Lazy<T> startOn(Executor executor) {
+        executor.execute(this::get);
+        return this;
+    }
+
+    /**
+     * Whether the value has been created.
+     *
+     * @return true after the first get
+     */
+    boolean isInitialized() {
+        return value != null;
+    }
+
+    /**
+     * Printer that starts opening in the background.
+     *
+     * @param factory  opens the printer
+     * @param executor to open it on
+     * @return printer that waits on the first line if not open yet
+     */
+    static Printer printer(Supplier<? extends Printer> factory, Executor executor) {
+        Lazy<Printer> printer = new Lazy<Printer>(factory).startOn(executor);
+        return line -> printer.get().println(line);
+    }
+
+    /**
+     * UI that starts opening in the background.
+     *
+     * @param factory  opens the UI
+     * @param executor to open it on
+     * @return UI that waits on the first display if not open yet
+     */
+    static UI ui(Supplier<? extends UI> factory, Executor executor) {
+        Lazy<UI> ui = new Lazy<UI>(factory).startOn(executor);
+        return new UI() {
+            @Override
+            public void displayProduct(Product p) {
+                ui.get().displayProduct(p);
+            }
+
+            @Override
+            public void displayCalendar() {
+                ui.get().displayCalendar();
+            }
+
+            @Override
+            public void displayErrorMessage(String message) {
+                ui.get().displayErrorMessage(message);
+            }
+        };
+    }
+}
@@ -0,0 +1,196 @@
+package ps;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * SalesService that accepts scans while the full catalog is still loading.
+ *
+ * Loading starts on the given executor at construction. Until it is done,
+ * lookups are answered from a small warm set (e.g. a snapshot of the best
+ * sellers, which covers most first scans); only a bar code outside the warm
+ * set waits for the full catalog. Sold salesRecords are kept in order and
+ * handed to the full catalog once it is loaded.
+ *
+ * A failed load is retried a few times with doubling delays. When all
+ * attempts fail the service stays on the warm set and hands the sold
+ * salesRecords to the fallback, so they are not kept forever; see
+ * {@link #isFailed()}. The fallback must register sales for real: the warm
+ * set is only a snapshot for lookups and is no place for them.
+ *
+ * The warm set should be taken from the same catalog, its prices are used
+ * as is.
+ */
+class LazySalesService implements SalesService {
+
+    static final int LOAD_ATTEMPTS = 3;
+    static final Duration FIRST_RETRY = Duration.ofMillis(500);
+
+    private final SalesService warm;
+    private final SalesService fallback;
+    private final Supplier<? extends SalesService> loader;
+    private final Executor executor;
+    private final int attempts;
+    private final CompletableFuture<SalesService> full = new CompletableFuture<>();
+    private final AtomicInteger loadFailures = new AtomicInteger();
+    private final List<SalesRecord> pending = new ArrayList<>();
+
+    /**
+     * Start loading the catalog, with the default retries.
+     *
+     * @param warm     answers lookups while loading
+     * @param loader   loads the full catalog
+     * @param executor to load on
+     * @param fallback gets the sales when the catalog cannot be loaded, e.g.
+     *                 the sales service the catalog would register them at
+     */
+    LazySalesService(SalesService warm, Supplier<? extends SalesService> loader, Executor executor,
+            SalesService fallback) {
+        this(warm, loader, executor, fallback, LOAD_ATTEMPTS, FIRST_RETRY);
+    }
+
+    /**
+     * Start loading the catalog.
+     *
+     * @param warm       answers lookups while loading
+     * @param loader     loads the full catalog
+     * @param executor   to load on
+     * @param fallback   gets the sales when the catalog cannot be loaded
+     * @param attempts   number of loads to try, at least 1
+     * @param firstRetry delay before the second attempt, doubled for each next one
+     */
+    LazySalesService(SalesService warm, Supplier<? extends SalesService> loader, Executor executor,
+            SalesService fallback, int attempts, Duration firstRetry) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("attempts must be at least 1");
+        }
+        this.warm = warm;
+        this.fallback = fallback;
+        this.loader = loader;
+        this.executor = executor;
+        this.attempts = attempts;
+        full.whenComplete((loaded, failure) -> flush());
+        load(1, firstRetry.toMillis());
+    }
+
+    @Override
+    public Product lookupProduct(int barcode) throws UnknownProductException {
+        SalesService loaded = loaded();
+        if (loaded != null) {
+            return loaded.lookupProduct(barcode);
+        }
+        Product p = warm.findProduct(barcode);
+        if (p != null) {
+            return p;
+        }
+        return awaitCatalog().lookupProduct(barcode);
+    }
+
+    @Override
+    public Product findProduct(int barcode) {
+        SalesService loaded = loaded();
+        if (loaded != null) {
+            return loaded.findProduct(barcode);
+        }
+        Product p = warm.findProduct(barcode);
+        if (p != null) {
+            return p;
+        }
+        try {
+            return awaitCatalog().findProduct(barcode);
+        } catch (UnknownProductException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void sold(SalesRecord salesRecord) {
+        pending.add(salesRecord);
+        flush();
+    }
+
+    /**
+     * Whether all attempts to load the catalog failed. Lookups then stay on
+     * the warm set and sales go to the fallback.
+     *
+     * @return true once the last attempt failed
+     */
+    boolean isFailed() {
+        return full.isCompletedExceptionally();
+    }
+
+    /**
+     * Number of failed attempts to load the catalog.
+     *
+     * @return failed loads so far
+     */
+    int getLoadFailures() {
+        return loadFailures.get();
+    }
+
+    /**
+     * Whether the full catalog is loaded.
+     *
+     * @return true when lookups no longer use the warm set
+     */
+    boolean isLoaded() {
+        return full.isDone() && !full.isCompletedExceptionally();
+    }
+
+    /**
+     * Number of sold salesRecords waiting for the full catalog or the
+     * fallback.
+     *
+     * @return pending sales
+     */
+    synchronized int getPending() {
+        return pending.size();
+    }
+
+    private SalesService awaitCatalog() throws UnknownProductException {
+        try {
+            return full.join();
+        } catch (CompletionException e) {
+            throw new UnknownProductException("Catalog not available");
+        }
+    }
+
+    private SalesService loaded() {
+        return isLoaded() ? full.join() : null;
+    }
+
+    private void load(int attempt, long delayMillis) {
+        Executor on = attempt == 1 ? executor
+                : CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, executor);
+        CompletableFuture.<SalesService>supplyAsync(loader::get, on).whenComplete((loaded, failure) -> {
+            if (failure == null) {
+                full.complete(loaded);
+                return;
+            }
+            loadFailures.incrementAndGet();
+            if (attempt < attempts) {
+                load(attempt + 1, attempt == 1 ? delayMillis : delayMillis * 2);
+            } else {
+                full.completeExceptionally(failure);
+            }
+        });
+    }
+
+    private synchronized void flush() {
+        SalesService target = isFailed() ? fallback : loaded();
+        if (target == null) {
+            return;
+        }
+        for (SalesRecord sr : pending) {
+            target.sold(sr);
+        }
+        pending.clear();
+    }
+}
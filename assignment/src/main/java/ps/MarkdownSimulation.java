@@ -0,0 +1,267 @@
+package ps;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * What-if simulation of markdown pricing tables over historical sales.
+ *
+ * The history is decoded once into compact batches (bar code, days left,
+ * historical and catalogue price, quantity per sale) which all scenarios
+ * read. Scenarios run in parallel, one per core.
+ *
+ * Demand follows a simple linear model: a perishable that is cheaper than it
+ * was historically sells proportionally more, a dearer one less. Units that
+ * would no longer sell are counted as waste, valued at catalogue price. Sales
+ * of non-perishable products and of bar codes unknown to the catalog (such as
+ * promotion discounts) count as revenue unchanged.
+ */
+class MarkdownSimulation {
+
+    static final int BATCH_SIZE = 4_096;
+    private static final int FIXED = Integer.MIN_VALUE;
+
+    private final List<Batch> batches;
+    private final double elasticity;
+
+    /**
+     * A candidate pricing strategy: a default table and optional tables for
+     * groups of products (e.g. a category), keyed by bar code.
+     */
+    static final class Scenario {
+
+        private final String name;
+        private final PricingTable defaultTable;
+        private final Map<Integer, PricingTable> perBarcode;
+
+        /**
+         * Create a scenario.
+         *
+         * @param name         to report the results under
+         * @param defaultTable for products without their own table
+         * @param perBarcode   tables for specific products
+         */
+        Scenario(String name, PricingTable defaultTable, Map<Integer, PricingTable> perBarcode) {
+            this.name = name;
+            this.defaultTable = defaultTable;
+            this.perBarcode = Map.copyOf(perBarcode);
+        }
+
+        /**
+         * Create a scenario with one table for all products.
+         *
+         * @param name  to report the results under
+         * @param table for all products
+         */
+        Scenario(String name, PricingTable table) {
+            this(name, table, Map.of());
+        }
+
+        String getName() {
+            return name;
+        }
+
+        PricingTable tableFor(int barcode) {
+            return perBarcode.getOrDefault(barcode, defaultTable);
+        }
+    }
+
+    /**
+     * Outcome of one scenario.
+     */
+    static final class Result {
+
+        private final String scenario;
+        private final long revenue;
+        private final long unitsSold;
+        private final long wasteUnits;
+        private final long wasteValue;
+
+        Result(String scenario, long revenue, long unitsSold, long wasteUnits, long wasteValue) {
+            this.scenario = scenario;
+            this.revenue = revenue;
+            this.unitsSold = unitsSold;
+            this.wasteUnits = wasteUnits;
+            this.wasteValue = wasteValue;
+        }
+
+        String getScenario() {
+            return scenario;
+        }
+
+        /**
+         * @return revenue in cents
+         */
+        long getRevenue() {
+            return revenue;
+        }
+
+        long getUnitsSold() {
+            return unitsSold;
+        }
+
+        long getWasteUnits() {
+            return wasteUnits;
+        }
+
+        /**
+         * @return wasted units at catalogue price, in cents
+         */
+        long getWasteValue() {
+            return wasteValue;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "scenario=" + scenario
+                    + ", revenue=" + revenue
+                    + ", unitsSold=" + unitsSold
+                    + ", wasteUnits=" + wasteUnits
+                    + ", wasteValue=" + wasteValue + '}';
+        }
+    }
+
+    /**
+     * Decoded sales in columns. Read only once built, so shared by all
+     * scenarios without copying.
+     */
+    private static final class Batch {
+
+        final int[] barcode = new int[BATCH_SIZE];
+        final int[] daysLeft = new int[BATCH_SIZE];
+        final int[] historicalPrice = new int[BATCH_SIZE];
+        final int[] catalogPrice = new int[BATCH_SIZE];
+        final int[] quantity = new int[BATCH_SIZE];
+        int size = 0;
+    }
+
+    /**
+     * Decode the history.
+     *
+     * @param history      sales records, e.g. a year of finalized sales
+     * @param salesService catalog to get the catalogue prices from, asked
+     *                     once per bar code
+     * @param elasticity   relative change in units sold per relative change
+     *                     in price, 0 for fixed demand
+     */
+    MarkdownSimulation(Iterable<SalesRecord> history, SalesService salesService, double elasticity) {
+        this.elasticity = elasticity;
+        List<Batch> decoded = new ArrayList<>();
+        Map<Integer, Product> catalog = new HashMap<>();
+        Batch current = null;
+        for (SalesRecord sr : history) {
+            if (current == null || current.size == BATCH_SIZE) {
+                current = new Batch();
+                decoded.add(current);
+            }
+            Product product = catalog.get(sr.getBarcode());
+            if (product == null && !catalog.containsKey(sr.getBarcode())) {
+                product = salesService.findProduct(sr.getBarcode());
+                catalog.put(sr.getBarcode(), product);
+            }
+            int i = current.size++;
+            current.barcode[i] = sr.getBarcode();
+            current.historicalPrice[i] = sr.getSalesPrice();
+            current.quantity[i] = sr.getQuantity();
+            // a record without best before date (LocalDate.MAX) was sold
+            // without markdown
+            if (product == null || !product.isPerishable() || sr.getSoldOnDate() == null
+                    || sr.getBestBeforeDate() == null || LocalDate.MAX.equals(sr.getBestBeforeDate())) {
+                current.catalogPrice[i] = sr.getSalesPrice();
+                current.daysLeft[i] = FIXED;
+            } else {
+                current.catalogPrice[i] = product.getPrice();
+                current.daysLeft[i] = PricingTable.daysLeft(sr.getSoldOnDate(), sr.getBestBeforeDate());
+            }
+        }
+        this.batches = Collections.unmodifiableList(decoded);
+    }
+
+    /**
+     * Number of decoded sales.
+     *
+     * @return number of sales records in the history
+     */
+    int size() {
+        int n = 0;
+        for (Batch b : batches) {
+            n += b.size;
+        }
+        return n;
+    }
+
+    /**
+     * Run the scenarios in parallel, one per available core.
+     *
+     * @param scenarios to compare
+     * @return results in the order of the scenarios
+     */
+    List<Result> run(List<Scenario> scenarios) {
+        int threads = Math.max(1, Math.min(scenarios.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>(scenarios.size());
+            for (Scenario s : scenarios) {
+                tasks.add(() -> simulate(s));
+            }
+            List<Result> results = new ArrayList<>(scenarios.size());
+            for (Future<Result> f : pool.invokeAll(tasks)) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("simulation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("simulation failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Replay the history through one scenario.
+     *
+     * @param scenario to simulate
+     * @return its result
+     */
+    Result simulate(Scenario scenario) {
+        long revenue = 0;
+        long unitsSold = 0;
+        long wasteUnits = 0;
+        long wasteValue = 0;
+        for (Batch b : batches) {
+            for (int i = 0; i < b.size; i++) {
+                int qty = b.quantity[i];
+                if (b.daysLeft[i] == FIXED) {
+                    revenue += (long) b.historicalPrice[i] * qty;
+                    unitsSold += qty;
+                    continue;
+                }
+                int catalog = b.catalogPrice[i];
+                int price = scenario.tableFor(b.barcode[i]).price(catalog, b.daysLeft[i]);
+                long units = qty;
+                if (catalog > 0) {
+                    double change = elasticity * (b.historicalPrice[i] - price) / catalog;
+                    units = Math.max(0, Math.round(qty * (1.0 + change)));
+                }
+                revenue += price * units;
+                unitsSold += units;
+                if (units < qty) {
+                    wasteUnits += qty - units;
+                    wasteValue += (long) catalog * (qty - units);
+                }
+            }
+        }
+        return new Result(scenario.getName(), revenue, unitsSold, wasteUnits, wasteValue);
+    }
+}
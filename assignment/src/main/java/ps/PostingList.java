@@ -0,0 +1,90 @@
+package ps;
+
+import java.util.Arrays;
+
+/**
+ * Ascending list of receipt ids, stored compressed: each id is written as the
+ * difference to the previous one in a variable length encoding of 7 bits per
+ * byte. Receipts of the same day have nearby ids, so most entries take one
+ * or two bytes instead of eight.
+ */
+final class PostingList {
+
+    private byte[] bytes = new byte[16];
+    private int length = 0;
+    private int count = 0;
+    private long last = 0;
+
+    /**
+     * Append an id.
+     *
+     * @param id larger than any id added before
+     */
+    void add(long id) {
+        if (count > 0 && id <= last) {
+            throw new IllegalArgumentException("ids must be added in ascending order");
+        }
+        long delta = count == 0 ? id : id - last;
+        if (length + 10 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+        }
+        while ((delta & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        bytes[length++] = (byte) delta;
+        last = id;
+        count++;
+    }
+
+    /**
+     * Decode all ids.
+     *
+     * @return ids in ascending order
+     */
+    long[] toArray() {
+        long[] ids = new long[count];
+        int pos = 0;
+        long id = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += delta;
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * The largest id.
+     *
+     * @return last id added, 0 when empty
+     */
+    long last() {
+        return count == 0 ? 0 : last;
+    }
+
+    /**
+     * Number of ids.
+     *
+     * @return size
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Bytes used by the encoded ids.
+     *
+     * @return encoded length
+     */
+    int encodedLength() {
+        return length;
+    }
+}
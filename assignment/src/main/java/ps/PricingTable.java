@@ -0,0 +1,92 @@
+package ps;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+/**
+ * Markdown tiers for perishable products: the percentage of the catalogue
+ * price charged depending on the number of days left till the best before
+ * date.
+ *
+ * The table lists the percentage for 0, 1, 2, ... days left. With more days
+ * left than listed, the full price is charged; over date the overdue
+ * percentage applies.
+ */
+public class PricingTable {
+
+    /**
+     * The pricing strategy of the assignment: full price from 2 days, 65% at
+     * 1 day, 35% on the day itself and nothing when over date.
+     */
+    public static final PricingTable STANDARD = new PricingTable(0, 35, 65);
+
+    private final int overduePercent;
+    private final int[] percentByDaysLeft;
+
+    /**
+     * Create a pricing table.
+     *
+     * @param overduePercent    percentage charged after the best before date
+     * @param percentByDaysLeft percentage charged with 0, 1, 2 ... days left
+     */
+    public PricingTable(int overduePercent, int... percentByDaysLeft) {
+        if (overduePercent < 0 || Arrays.stream(percentByDaysLeft).anyMatch(p -> p < 0)) {
+            throw new IllegalArgumentException("percentages must not be negative");
+        }
+        this.overduePercent = overduePercent;
+        this.percentByDaysLeft = percentByDaysLeft.clone();
+    }
+
+    /**
+     * Percentage of the catalogue price to charge.
+     *
+     * @param daysLeft days from today till best before date
+     * @return percentage
+     */
+    public int percent(int daysLeft) {
+        if (daysLeft < 0) {
+            return overduePercent;
+        }
+        return daysLeft < percentByDaysLeft.length ? percentByDaysLeft[daysLeft] : 100;
+    }
+
+    /**
+     * Whole days from one date till the best before date. Counted in days,
+     * not as the day part of a period, so a best before date one month ahead
+     * is about 30 days left, not 0. Saturates at the int range.
+     *
+     * @param today      date of the sale
+     * @param bestBefore best before date
+     * @return days left, negative when over date
+     */
+    public static int daysLeft(LocalDate today, LocalDate bestBefore) {
+        long days = ChronoUnit.DAYS.between(today, bestBefore);
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE, days));
+    }
+
+    /**
+     * Sales price for the given catalogue price and days left.
+     *
+     * @param price    catalogue price in cents
+     * @param daysLeft days from today till best before date
+     * @return sales price in cents, rounded down
+     */
+    public int price(int price, int daysLeft) {
+        return (int) ((long) price * percent(daysLeft) / 100);
+    }
+
+    /**
+     * Textual representation, e.g. {@code PricingTable{overdue=0, 0:35, 1:65}}.
+     *
+     * @return the tiers
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PricingTable{overdue=").append(overduePercent);
+        for (int d = 0; d < percentByDaysLeft.length; d++) {
+            sb.append(", ").append(d).append(':').append(percentByDaysLeft[d]);
+        }
+        return sb.append('}').toString();
+    }
+}
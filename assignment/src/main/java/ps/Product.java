@@ -77,6 +77,35 @@ public class Product {
         return perishable;
     }
 
+    /**
+     * Products are identified by their bar code. Two instances handed out by
+     * the sales service for the same bar code denote the same product, so
+     * they must land on the same line of a sales transaction.
+     *
+     * @param o other object
+     * @return true if o is a Product with the same bar code
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Product)) {
+            return false;
+        }
+        return barcode == ((Product) o).barcode;
+    }
+
+    /**
+     * Hash code consistent with {@link #equals(Object)}.
+     *
+     * @return hash of the bar code
+     */
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(barcode);
+    }
+
     /**
      * Get product in textual format.
      * Contains shortName, description, catalogue price, bar code and the
@@ -0,0 +1,175 @@
+package ps;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A multi-buy or bundle offer. A promotion involves one or more bar codes and
+ * computes its discount from the salesRecords of those bar codes, so the
+ * discount follows quantities and (reduced) sales prices.
+ *
+ * Promotions have a positive code. The discount line registered at the
+ * sales service carries the negated code as bar code, a range no product
+ * bar code uses.
+ */
+public class Promotion {
+
+    private final int code;
+    private final String description;
+    private final int[] barcodes;
+    private final Discount discount;
+
+    /**
+     * Compute the discount in cents given the lines of the basket, keyed by
+     * bar code.
+     */
+    @FunctionalInterface
+    interface Discount {
+
+        int of(Map<Integer, SalesRecord> lines);
+    }
+
+    Promotion(int code, String description, int[] barcodes, Discount discount) {
+        if (code <= 0) {
+            throw new IllegalArgumentException("promotion code must be positive");
+        }
+        this.code = code;
+        this.description = description;
+        this.barcodes = barcodes;
+        this.discount = discount;
+    }
+
+    /**
+     * Buy a number of items, pay for fewer of them, e.g. 3 for 2.
+     *
+     * @param code        of the promotion
+     * @param description printed on the receipt
+     * @param barcode     of the product on offer
+     * @param buy         number of items to buy
+     * @param pay         number of items to pay
+     * @return the promotion
+     */
+    public static Promotion multiBuy(int code, String description, int barcode, int buy, int pay) {
+        if (buy < 1 || pay < 0 || pay >= buy) {
+            throw new IllegalArgumentException("pay must be less than buy");
+        }
+        return new Promotion(code, description, new int[]{barcode}, lines -> {
+            SalesRecord line = lines.get(barcode);
+            if (line == null) {
+                return 0;
+            }
+            return (line.getQuantity() / buy) * (buy - pay) * line.getSalesPrice();
+        });
+    }
+
+    /**
+     * A number of items for a fixed price, e.g. 2 for 3 euro.
+     *
+     * @param code        of the promotion
+     * @param description printed on the receipt
+     * @param barcode     of the product on offer
+     * @param quantity    number of items
+     * @param price       for the items together, in cents
+     * @return the promotion
+     */
+    public static Promotion forPrice(int code, String description, int barcode, int quantity, int price) {
+        if (quantity < 1 || price < 0) {
+            throw new IllegalArgumentException("quantity must be positive and price not negative");
+        }
+        return new Promotion(code, description, new int[]{barcode}, lines -> {
+            SalesRecord line = lines.get(barcode);
+            if (line == null) {
+                return 0;
+            }
+            int saving = quantity * line.getSalesPrice() - price;
+            return saving <= 0 ? 0 : (line.getQuantity() / quantity) * saving;
+        });
+    }
+
+    /**
+     * One of each of the given products for a fixed price.
+     *
+     * @param code        of the promotion
+     * @param description printed on the receipt
+     * @param price       for the bundle, in cents
+     * @param barcodes    of the products in the bundle
+     * @return the promotion
+     */
+    public static Promotion bundle(int code, String description, int price, int... barcodes) {
+        if (barcodes.length < 2 || price < 0) {
+            throw new IllegalArgumentException("a bundle needs at least two products and a price");
+        }
+        int[] members = barcodes.clone();
+        return new Promotion(code, description, members, lines -> {
+            int sets = Integer.MAX_VALUE;
+            int sum = 0;
+            for (int b : members) {
+                SalesRecord line = lines.get(b);
+                if (line == null) {
+                    return 0;
+                }
+                sets = Math.min(sets, line.getQuantity());
+                sum += line.getSalesPrice();
+            }
+            int saving = sum - price;
+            return saving <= 0 ? 0 : sets * saving;
+        });
+    }
+
+    /**
+     * Code of the promotion.
+     *
+     * @return code
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Bar code of the discount line of this promotion: the negated code, so
+     * it never collides with a product bar code.
+     *
+     * @return negative bar code
+     */
+    public int getDiscountBarcode() {
+        return -code;
+    }
+
+    /**
+     * getDescription of the promotion.
+     *
+     * @return description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Bar codes involved in this promotion.
+     *
+     * @return copy of the bar codes
+     */
+    public int[] getBarcodes() {
+        return barcodes.clone();
+    }
+
+    int[] barcodes() {
+        return barcodes;
+    }
+
+    int discount(Map<Integer, SalesRecord> lines) {
+        return discount.of(lines);
+    }
+
+    /**
+     * Get promotion in textual format.
+     *
+     * @return code, description and bar codes
+     */
+    @Override
+    public String toString() {
+        return "Promotion{" + "code=" + code
+                + ", description=" + description
+                + ", barcodes=" + Arrays.toString(barcodes) + '}';
+    }
+}
@@ -0,0 +1,335 @@
+package ps;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the promotion discounts of one basket up to date while scanning.
+ *
+ * Promotions are indexed by the bar codes they involve. When a line changes
+ * (scan, price correction) only the promotions of that bar code are evaluated
+ * again and the total discount is adjusted by the difference, so the cost of a
+ * scan does not grow with the size of the basket; it grows with the number of
+ * promotions on the scanned bar code and of the promotions sharing a bar code
+ * with those.
+ *
+ * Promotions do not stack: the items of a bar code count towards at most one
+ * promotion. On a change the applied set is only reconsidered in the scope of
+ * the scanned bar code: its promotions and the promotions sharing a bar code
+ * with those. Of these the set without shared bar codes with the largest
+ * total discount is applied, the applied ones staying on equal totals and
+ * the promotions outside the scope left as they are, e.g. with 3 for 2 on lamps and a lamp and banana bundle, 3 lamps and a
+ * banana get the 3 for 2 only. Because the choice is local, a chain of
+ * overlapping promotions is not optimized as a whole.
+ */
+class PromotionEngine {
+
+    /**
+     * Above this many candidates in the scope of one scan, the best set is
+     * picked greedily, largest discount first, instead of searched.
+     */
+    static final int EXACT_LIMIT = 16;
+
+    private final Promotion[] promotions;
+    private final Map<Integer, int[]> byBarcode = new HashMap<>();
+    /** per promotion, the other promotions sharing a bar code with it */
+    private final int[][] conflicts;
+    private final int[] amounts;
+    private final boolean[] applied;
+    /** promotions with a discount, to reset on clear */
+    private int[] touched = new int[16];
+    private int touchedCount = 0;
+    // scratch state of one reevaluation: the scope (promotions of the bar
+    // code and those sharing a bar code with them) and the candidates in it
+    private final int[] inScope;
+    private final int[] candidateIndex;
+    private int scopeStamp = 0;
+    private int[] scope = new int[16];
+    private int[] candidates = new int[16];
+    private boolean[] chosen = new boolean[16];
+    private final long[] masks = new long[EXACT_LIMIT];
+    private long bestSet;
+    private int bestTotal;
+
+    private final Map<Integer, SalesRecord> lines = new HashMap<>();
+    private final Map<Promotion, Integer> discounts = new LinkedHashMap<>();
+    private int totalDiscount = 0;
+
+    /**
+     * Create an engine for the given promotions.
+     *
+     * @param promotions on offer
+     */
+    PromotionEngine(Collection<Promotion> promotions) {
+        this.promotions = promotions.toArray(new Promotion[0]);
+        int n = this.promotions.length;
+        Map<Integer, List<Integer>> index = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            for (int barcode : this.promotions[i].barcodes()) {
+                index.computeIfAbsent(barcode, b -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<Integer, List<Integer>> e : index.entrySet()) {
+            byBarcode.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).distinct().toArray());
+        }
+        this.conflicts = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Set<Integer> others = new LinkedHashSet<>();
+            for (int barcode : this.promotions[i].barcodes()) {
+                for (int j : byBarcode.get(barcode)) {
+                    if (j != i) {
+                        others.add(j);
+                    }
+                }
+            }
+            conflicts[i] = others.stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.amounts = new int[n];
+        this.applied = new boolean[n];
+        this.inScope = new int[n];
+        this.candidateIndex = new int[n];
+    }
+
+    /**
+     * A line of the basket was created or changed quantity or price. Evaluate
+     * the promotions involving its bar code again.
+     *
+     * @param line that changed
+     */
+    void lineChanged(SalesRecord line) {
+        lines.put(line.getBarcode(), line);
+        reevaluate(line.getBarcode());
+    }
+
+    /**
+     * A line was removed from the basket. Evaluate the promotions involving
+     * its bar code again.
+     *
+     * @param barcode of the removed line
+     */
+    void lineRemoved(int barcode) {
+        if (lines.remove(barcode) != null) {
+            reevaluate(barcode);
+        }
+    }
+
+    private void reevaluate(int barcode) {
+        int[] affected = byBarcode.get(barcode);
+        if (affected == null) {
+            return;
+        }
+        scopeStamp++;
+        int size = 0;
+        for (int p : affected) {
+            setAmount(p, promotions[p].discount(lines));
+            size = addToScope(p, size);
+        }
+        for (int p : affected) {
+            for (int q : conflicts[p]) {
+                size = addToScope(q, size);
+            }
+        }
+        // candidates: promotions of the scope with a discount that no applied
+        // promotion outside the scope blocks; the applied ones first, so they
+        // stay on equal totals
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            candidateIndex[scope[i]] = -1;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < size; i++) {
+                int p = scope[i];
+                if (applied[p] == (pass == 0) && amounts[p] > 0 && !blockedOutsideScope(p)) {
+                    candidateIndex[p] = count;
+                    candidates[count++] = p;
+                }
+            }
+        }
+        if (count <= EXACT_LIMIT) {
+            search(count);
+        } else {
+            greedy(count);
+        }
+        for (int i = 0; i < size; i++) {
+            int p = scope[i];
+            int c = candidateIndex[p];
+            if (c >= 0 && chosen[c]) {
+                applied[p] = true;
+                setDiscount(p, amounts[p]);
+            } else if (applied[p]) {
+                unapply(p);
+            }
+        }
+    }
+
+    private int addToScope(int p, int size) {
+        if (inScope[p] == scopeStamp) {
+            return size;
+        }
+        inScope[p] = scopeStamp;
+        if (size == scope.length) {
+            scope = Arrays.copyOf(scope, 2 * size);
+            candidates = Arrays.copyOf(candidates, 2 * size);
+            chosen = Arrays.copyOf(chosen, 2 * size);
+        }
+        scope[size] = p;
+        return size + 1;
+    }
+
+    private boolean blockedOutsideScope(int p) {
+        for (int q : conflicts[p]) {
+            if (applied[q] && inScope[q] != scopeStamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bit mask of the candidates that share a bar code with candidate c.
+     */
+    private long conflictMask(int c) {
+        long mask = 0;
+        for (int q : conflicts[candidates[c]]) {
+            int qc = inScope[q] == scopeStamp ? candidateIndex[q] : -1;
+            if (qc >= 0) {
+                mask |= 1L << qc;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Exact choice among at most EXACT_LIMIT candidates: the set without
+     * shared bar codes with the largest total. On equal totals the set with
+     * the candidates listed first, the applied ones, wins.
+     */
+    private void search(int count) {
+        for (int c = 0; c < count; c++) {
+            masks[c] = conflictMask(c);
+        }
+        bestTotal = -1;
+        bestSet = 0;
+        search(0, count, 0, 0);
+        for (int c = 0; c < count; c++) {
+            chosen[c] = (bestSet & (1L << c)) != 0;
+        }
+    }
+
+    private void search(int c, int count, long taken, int total) {
+        if (c == count) {
+            if (total > bestTotal) {
+                bestTotal = total;
+                bestSet = taken;
+            }
+            return;
+        }
+        if ((masks[c] & taken) == 0) {
+            search(c + 1, count, taken | (1L << c), total + amounts[candidates[c]]);
+        }
+        search(c + 1, count, taken, total);
+    }
+
+    /**
+     * Choice among many candidates: largest discount first, on equal
+     * discounts the candidate listed first, skipping those that share a bar
+     * code with one already taken.
+     */
+    private void greedy(int count) {
+        List<Integer> order = new ArrayList<>(count);
+        for (int c = 0; c < count; c++) {
+            order.add(c);
+            chosen[c] = false;
+        }
+        order.sort((x, y) -> amounts[candidates[x]] != amounts[candidates[y]]
+                ? amounts[candidates[y]] - amounts[candidates[x]] : x - y);
+        for (int c : order) {
+            boolean free = true;
+            for (int q : conflicts[candidates[c]]) {
+                int qc = inScope[q] == scopeStamp ? candidateIndex[q] : -1;
+                free &= qc < 0 || !chosen[qc];
+            }
+            chosen[c] = free;
+        }
+    }
+
+    private void setAmount(int p, int amount) {
+        if (amounts[p] == 0 && amount != 0) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, 2 * touchedCount);
+            }
+            touched[touchedCount++] = p;
+        }
+        amounts[p] = amount;
+    }
+
+    private void setDiscount(int p, int amount) {
+        Integer before = discounts.put(promotions[p], amount);
+        totalDiscount += amount - (before == null ? 0 : before);
+    }
+
+    private void unapply(int p) {
+        applied[p] = false;
+        Integer before = discounts.remove(promotions[p]);
+        totalDiscount -= before == null ? 0 : before;
+    }
+
+    /**
+     * Discounts of the promotions that currently apply, in order of first
+     * application.
+     *
+     * @return discount in cents per promotion
+     */
+    Map<Promotion, Integer> getDiscounts() {
+        return Collections.unmodifiableMap(discounts);
+    }
+
+    /**
+     * Sum of all current discounts.
+     *
+     * @return total discount in cents
+     */
+    int getTotalDiscount() {
+        return totalDiscount;
+    }
+
+    /**
+     * The discounts as salesRecords, one per applied promotion with the
+     * negated promotion code as bar code (see
+     * {@link Promotion#getDiscountBarcode()}) and the negated discount as
+     * sales price.
+     *
+     * @param soldOn date of the sale
+     * @return discount lines
+     */
+    List<SalesRecord> discountRecords(LocalDate soldOn) {
+        List<SalesRecord> records = new ArrayList<>(discounts.size());
+        for (Map.Entry<Promotion, Integer> d : discounts.entrySet()) {
+            records.add(new SalesRecord(d.getKey().getDiscountBarcode(), soldOn, -d.getValue()));
+        }
+        return records;
+    }
+
+    /**
+     * Forget the basket, e.g. after finalizing the sales transaction.
+     */
+    void clear() {
+        for (int i = 0; i < touchedCount; i++) {
+            amounts[touched[i]] = 0;
+            applied[touched[i]] = false;
+        }
+        touchedCount = 0;
+        lines.clear();
+        discounts.clear();
+        totalDiscount = 0;
+    }
+}
@@ -0,0 +1,104 @@
+package ps;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A finalized sales transaction as kept in the {@link ReceiptHistory}.
+ * Immutable: the lines are copied from the salesRecords at finalization.
+ */
+public final class Receipt {
+
+    private final long id;
+    private final LocalDate soldOnDate;
+    private final List<Line> lines;
+
+    /**
+     * One line of a receipt, a frozen copy of a SalesRecord.
+     */
+    public static final class Line {
+
+        private final int barcode;
+        private final LocalDate bestBeforeDate;
+        private final int salesPrice;
+        private final int quantity;
+
+        Line(SalesRecord salesRecord) {
+            this.barcode = salesRecord.getBarcode();
+            this.bestBeforeDate = salesRecord.getBestBeforeDate();
+            this.salesPrice = salesRecord.getSalesPrice();
+            this.quantity = salesRecord.getQuantity();
+        }
+
+        public int getBarcode() {
+            return barcode;
+        }
+
+        public LocalDate getBestBeforeDate() {
+            return bestBeforeDate;
+        }
+
+        public int getSalesPrice() {
+            return salesPrice;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        @Override
+        public String toString() {
+            return "Line{" + "barcode=" + barcode + ", bestBefore=" + bestBeforeDate
+                    + " qty " + quantity + ", salesPrice=" + salesPrice + '}';
+        }
+    }
+
+    Receipt(long id, LocalDate soldOnDate, List<SalesRecord> salesRecords) {
+        this.id = id;
+        this.soldOnDate = soldOnDate;
+        List<Line> copy = new ArrayList<>(salesRecords.size());
+        for (SalesRecord sr : salesRecords) {
+            copy.add(new Line(sr));
+        }
+        this.lines = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * getId of the receipt, ascending in order of finalization.
+     *
+     * @return id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * getSoldOnDate.
+     *
+     * @return date of the transaction
+     */
+    public LocalDate getSoldOnDate() {
+        return soldOnDate;
+    }
+
+    /**
+     * getLines of the receipt, in the order they were registered.
+     *
+     * @return unmodifiable lines
+     */
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    /**
+     * Textual representation of the receipt.
+     *
+     * @return id, date and lines
+     */
+    @Override
+    public String toString() {
+        return "Receipt{" + "id=" + id + ", soldOn=" + soldOnDate + ", lines=" + lines + '}';
+    }
+}
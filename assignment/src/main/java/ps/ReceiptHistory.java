@@ -0,0 +1,194 @@
+package ps;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Finalized sales transactions, kept for returns and audits.
+ *
+ * Each finalized transaction becomes an immutable {@link Receipt} with an
+ * ascending id, dated by the sold-on date of its lines, so a basket opened
+ * before midnight is filed under the day it was opened. Inverted indexes
+ * from sold-on date and, per date, from bar code to receipt ids answer
+ * questions like "which receipts contained bar code X on date D" by decoding
+ * only the postings of that date. The posting lists of the indexes are
+ * compressed (see {@link PostingList}).
+ *
+ * Receipts older than the retention period are dropped, at the latest when
+ * the first receipt of a new day is recorded.
+ */
+class ReceiptHistory {
+
+    /**
+     * Receipt ids of one sold-on date, all of them and per bar code.
+     */
+    private static final class Day {
+
+        final PostingList receipts = new PostingList();
+        final Map<Integer, PostingList> byBarcode = new HashMap<>();
+    }
+
+    private final Clock clock;
+    private final Period retention;
+
+    private final NavigableMap<Long, Receipt> receipts = new TreeMap<>();
+    private final NavigableMap<LocalDate, Day> byDate = new TreeMap<>();
+    private long nextId = 1;
+    private LocalDate purgedOn = null;
+
+    /**
+     * Create an empty history.
+     *
+     * @param clock     wall clock, dates receipts without sold-on date and
+     *                  drives the retention
+     * @param retention how long receipts are kept
+     */
+    ReceiptHistory(Clock clock, Period retention) {
+        this.clock = clock;
+        this.retention = retention;
+    }
+
+    /**
+     * Record a finalized transaction. The receipt gets the earliest sold-on
+     * date of the lines, today if none has one.
+     *
+     * @param salesRecords the lines of the transaction
+     * @return the receipt
+     */
+    synchronized Receipt record(List<SalesRecord> salesRecords) {
+        LocalDate today = LocalDate.now(clock);
+        if (!today.equals(purgedOn)) {
+            purge();
+        }
+        Receipt receipt = new Receipt(nextId++, soldOn(salesRecords, today), salesRecords);
+        receipts.put(receipt.getId(), receipt);
+        Day day = byDate.computeIfAbsent(receipt.getSoldOnDate(), d -> new Day());
+        day.receipts.add(receipt.getId());
+        for (Receipt.Line line : receipt.getLines()) {
+            PostingList postings = day.byBarcode.computeIfAbsent(line.getBarcode(), b -> new PostingList());
+            // a bar code appears once per receipt, but do not trust it
+            if (postings.size() == 0 || postings.last() != receipt.getId()) {
+                postings.add(receipt.getId());
+            }
+        }
+        return receipt;
+    }
+
+    /**
+     * Get a receipt by id.
+     *
+     * @param id of the receipt
+     * @return the receipt, null if unknown or no longer retained
+     */
+    synchronized Receipt get(long id) {
+        return receipts.get(id);
+    }
+
+    /**
+     * Receipts that contain a bar code.
+     *
+     * @param barcode to find
+     * @return receipts in order of finalization
+     */
+    synchronized List<Receipt> containing(int barcode) {
+        List<long[]> perDay = new ArrayList<>();
+        int total = 0;
+        for (Day day : byDate.values()) {
+            PostingList postings = day.byBarcode.get(barcode);
+            if (postings != null) {
+                long[] ids = postings.toArray();
+                perDay.add(ids);
+                total += ids.length;
+            }
+        }
+        long[] ids = new long[total];
+        int n = 0;
+        for (long[] dayIds : perDay) {
+            System.arraycopy(dayIds, 0, ids, n, dayIds.length);
+            n += dayIds.length;
+        }
+        // a receipt dated yesterday can be finalized after one of today
+        Arrays.sort(ids);
+        return resolve(ids);
+    }
+
+    /**
+     * Receipts of one date.
+     *
+     * @param date sold-on date
+     * @return receipts in order of finalization
+     */
+    synchronized List<Receipt> soldOn(LocalDate date) {
+        Day day = byDate.get(date);
+        return day == null ? List.of() : resolve(day.receipts.toArray());
+    }
+
+    /**
+     * Receipts of one date that contain a bar code. Only the postings of
+     * that date are decoded.
+     *
+     * @param barcode to find
+     * @param date    sold-on date
+     * @return receipts in order of finalization
+     */
+    synchronized List<Receipt> containing(int barcode, LocalDate date) {
+        Day day = byDate.get(date);
+        PostingList postings = day == null ? null : day.byBarcode.get(barcode);
+        return postings == null ? List.of() : resolve(postings.toArray());
+    }
+
+    /**
+     * Drop the receipts sold before today minus the retention period.
+     */
+    synchronized void purge() {
+        LocalDate today = LocalDate.now(clock);
+        purgedOn = today;
+        LocalDate cutoff = today.minus(retention);
+        NavigableMap<LocalDate, Day> expired = byDate.headMap(cutoff, false);
+        for (Day day : expired.values()) {
+            for (long id : day.receipts.toArray()) {
+                receipts.remove(id);
+            }
+        }
+        expired.clear();
+    }
+
+    /**
+     * Number of retained receipts.
+     *
+     * @return size
+     */
+    synchronized int size() {
+        return receipts.size();
+    }
+
+    private static LocalDate soldOn(List<SalesRecord> salesRecords, LocalDate today) {
+        LocalDate earliest = null;
+        for (SalesRecord sr : salesRecords) {
+            LocalDate d = sr.getSoldOnDate();
+            if (d != null && (earliest == null || d.isBefore(earliest))) {
+                earliest = d;
+            }
+        }
+        return earliest == null ? today : earliest;
+    }
+
+    private List<Receipt> resolve(long[] ids) {
+        List<Receipt> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Receipt r = receipts.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,226 @@
+package ps;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SalesService decorator that keeps a lane responsive when the catalog is
+ * slow.
+ *
+ * <ul>
+ * <li>Every lookup has a deadline. When neither catalog answered in time,
+ * the product is taken from a local snapshot.</li>
+ * <li>When the primary has not answered after its recent 95th percentile
+ * latency, the same lookup is sent to the replica (a hedged request). The
+ * first answer wins.</li>
+ * <li>After a number of consecutive failed lookups a circuit breaker opens
+ * and lookups go straight to the snapshot. After the open period one lookup
+ * is let through to probe the catalog again.</li>
+ * </ul>
+ *
+ * An unknown product is an answer, not a failure. Lookups use the catalogs'
+ * findProduct, so an unknown product costs no exception on the way.
+ * Registering sales goes to the primary.
+ */
+class ResilientSalesService implements SalesService {
+
+    private static final int SAMPLES = 128;
+    private static final int MIN_SAMPLES = 20;
+
+    private final SalesService primary;
+    private final SalesService replica;
+    private final SalesService snapshot;
+    private final Executor executor;
+    private final long deadlineNanos;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final long[] latencies = new long[SAMPLES];
+    private int sampleCount = 0;
+    private long p95Nanos;
+
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private boolean open = false;
+
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * Create the resilient lookup.
+     *
+     * @param primary          catalog to ask first
+     * @param replica          catalog to send hedged requests to
+     * @param snapshot         local catalog used after the deadline or when
+     *                         the breaker is open
+     * @param executor         to run the catalog calls on
+     * @param deadline         for one lookup
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param openDuration     how long the breaker stays open
+     */
+    ResilientSalesService(SalesService primary, SalesService replica, SalesService snapshot,
+            Executor executor, Duration deadline, int failureThreshold, Duration openDuration) {
+        this.primary = primary;
+        this.replica = replica;
+        this.snapshot = snapshot;
+        this.executor = executor;
+        this.deadlineNanos = deadline.toNanos();
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.p95Nanos = deadlineNanos / 2;
+    }
+
+    @Override
+    public Product lookupProduct(int barcode) throws UnknownProductException {
+        Product p = findProduct(barcode);
+        if (p == null) {
+            throw new UnknownProductException("This product is unknown");
+        }
+        return p;
+    }
+
+    @Override
+    public Product findProduct(int barcode) {
+        long start = System.nanoTime();
+        if (breakerOpen(start)) {
+            return fromSnapshot(barcode);
+        }
+        long deadlineAt = start + deadlineNanos;
+
+        CompletableFuture<Product> answer = new CompletableFuture<>();
+        CompletableFuture<Void> primaryFailed = ask(primary, barcode, answer, true);
+        await(CompletableFuture.anyOf(answer, primaryFailed), Math.min(hedgeDelayNanos(), deadlineAt - System.nanoTime()));
+
+        if (!answer.isDone() && System.nanoTime() < deadlineAt) {
+            hedges.incrementAndGet();
+            CompletableFuture<Void> replicaFailed = ask(replica, barcode, answer, false);
+            await(CompletableFuture.anyOf(answer, CompletableFuture.allOf(primaryFailed, replicaFailed)),
+                    deadlineAt - System.nanoTime());
+        }
+
+        if (answer.isDone()) {
+            // null: the catalog does not know the product, still an answer
+            succeeded();
+            return answer.getNow(null);
+        }
+        failed(System.nanoTime());
+        return fromSnapshot(barcode);
+    }
+
+    @Override
+    public void sold(SalesRecord salesRecord) {
+        primary.sold(salesRecord);
+    }
+
+    /**
+     * Lookups that were also sent to the replica.
+     *
+     * @return number of hedged requests
+     */
+    long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * Lookups answered from the snapshot.
+     *
+     * @return number of fallbacks
+     */
+    long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     * State of the circuit breaker.
+     *
+     * @return true when lookups currently go to the snapshot only
+     */
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Current delay after which a hedged request is sent.
+     *
+     * @return delay in nanoseconds
+     */
+    synchronized long hedgeDelayNanos() {
+        return p95Nanos;
+    }
+
+    private CompletableFuture<Void> ask(SalesService catalog, int barcode, CompletableFuture<Product> answer, boolean measure) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        executor.execute(() -> {
+            long t0 = System.nanoTime();
+            try {
+                answer.complete(catalog.findProduct(barcode));
+                if (measure) {
+                    sample(System.nanoTime() - t0);
+                }
+            } catch (RuntimeException e) {
+                failed.complete(null);
+            }
+        });
+        return failed;
+    }
+
+    private static void await(CompletableFuture<?> future, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            future.get(nanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // the caller inspects the answer
+        }
+    }
+
+    private Product fromSnapshot(int barcode) {
+        fallbacks.incrementAndGet();
+        return snapshot.findProduct(barcode);
+    }
+
+    private synchronized void sample(long nanos) {
+        latencies[sampleCount % SAMPLES] = nanos;
+        sampleCount++;
+        if (sampleCount >= MIN_SAMPLES && sampleCount % 8 == 0) {
+            int n = Math.min(sampleCount, SAMPLES);
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            p95Nanos = sorted[(int) Math.ceil(n * 0.95) - 1];
+        }
+    }
+
+    private synchronized boolean breakerOpen(long now) {
+        if (!open) {
+            return false;
+        }
+        if (now - openUntil >= 0) {
+            // half open: let this lookup probe the catalog
+            openUntil = now + openNanos;
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void succeeded() {
+        consecutiveFailures = 0;
+        open = false;
+    }
+
+    private synchronized void failed(long now) {
+        consecutiveFailures++;
+        if (consecutiveFailures >= failureThreshold) {
+            open = true;
+            openUntil = now + openNanos;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ps;
 
 import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Simple sales record. Used to store one line of a sales transaction.
@@ -11,11 +12,14 @@ import java.time.LocalDate;
  */
 public class SalesRecord {
 
+    private static final AtomicIntegerFieldUpdater<SalesRecord> QUANTITY
+            = AtomicIntegerFieldUpdater.newUpdater(SalesRecord.class, "quantity");
+
     private final int barcode;
-    private LocalDate bestBeforeDate = LocalDate.MAX;
+    private volatile LocalDate bestBeforeDate = LocalDate.MAX;
     private final LocalDate soldOnDate;
-    private int salesPrice;
-    private int quantity = 1;
+    private volatile int salesPrice;
+    private volatile int quantity = 1;
 
     /**
      * Initialize salesRecord. When it's created (by scanning a product), the initial
@@ -93,11 +97,21 @@ public class SalesRecord {
     /**
      * increaseQuantityBy. To increase the quantity with a given number of items. In 
      * our use case typically invoked with value 1 (to increase quantity by 1 after scan 
-     * of same product).
+     * of same product). The update is lock free (CAS), so several scanners can
+     * add to the same record concurrently.
      * @param increaseBy 
      */
     public void increaseQuantity(int increaseBy) {
-        this.quantity += increaseBy;
+        QUANTITY.addAndGet(this, increaseBy);
+    }
+
+    /**
+     * decreaseQuantity. To take items off the line again, e.g. when the cashier
+     * voids a scan.
+     * @param decreaseBy number of items to take off
+     */
+    public void decreaseQuantity(int decreaseBy) {
+        QUANTITY.addAndGet(this, -decreaseBy);
     }
 
     /**
@@ -15,6 +15,22 @@ public interface SalesService {
      */
     Product lookupProduct( int barcode ) throws UnknownProductException;
 
+    /**
+     * Lookup a product by bar code, without an exception for an unknown bar
+     * code. Misreads are common at the scanner, so the scan path uses this
+     * variant; implementations that know a bar code is unknown without
+     * throwing should override it.
+     * @param barcode input
+     * @return the product, null if bar code is not found
+     */
+    default Product findProduct( int barcode ) {
+        try {
+            return lookupProduct( barcode );
+        } catch ( UnknownProductException e ) {
+            return null;
+        }
+    }
+
     /**
      * Register a salesRecord.
      * @param salesRecord
@@ -0,0 +1,295 @@
+package ps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Speculative product lookup based on what is usually scanned next.
+ *
+ * The prefetcher learns from finalized baskets which bar code tends to follow
+ * which, keeping at most topK successors per bar code. After each scan the
+ * likely successors are looked up on the given executor, so the lookup latency
+ * of the next scan is hidden when the guess is right. The scan thread only
+ * hands a task to the executor.
+ *
+ * Prefetched products are kept until the basket is finalized, so repeated
+ * scans of a multi-pack are served from them too. Each entry is tagged with
+ * the basket generation and the catalog version it was fetched in: a prefetch
+ * finishing after its basket ended, or fetched before the catalog version
+ * changed (e.g. a price update), is never served. The catalog version is read
+ * through a callback, for a {@link VersionedCatalog} that is
+ * {@code () -> catalog.snapshot().getVersion()}.
+ *
+ * One prefetcher serves one cash register; the scanned basket is tracked on
+ * the scan thread.
+ */
+class ScanPrefetcher {
+
+    private final SalesService salesService;
+    private final Executor executor;
+    private final int topK;
+    private final LongSupplier catalogVersion;
+
+    private final Map<Integer, Successors> successors = new ConcurrentHashMap<>();
+    private final Map<Integer, Warm> warm = new ConcurrentHashMap<>();
+    private final List<Integer> basket = new ArrayList<>();
+    private volatile int basketGeneration = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    /**
+     * Create a prefetcher for a catalog that does not change while in use.
+     *
+     * @param salesService to do the actual lookups
+     * @param executor     to run the prefetches on, not the scan thread
+     * @param topK         maximum number of successors remembered per bar code
+     */
+    ScanPrefetcher(SalesService salesService, Executor executor, int topK) {
+        this(salesService, executor, topK, () -> 0);
+    }
+
+    /**
+     * Create a prefetcher.
+     *
+     * @param salesService   to do the actual lookups
+     * @param executor       to run the prefetches on, not the scan thread
+     * @param topK           maximum number of successors remembered per bar code
+     * @param catalogVersion current version of the catalog behind salesService,
+     *                       read on every scan so it must be cheap
+     */
+    ScanPrefetcher(SalesService salesService, Executor executor, int topK, LongSupplier catalogVersion) {
+        if (topK < 1) {
+            throw new IllegalArgumentException("topK must be at least 1");
+        }
+        this.salesService = salesService;
+        this.executor = executor;
+        this.topK = topK;
+        this.catalogVersion = catalogVersion;
+    }
+
+    /**
+     * Lookup a product, taking it from the prefetched products when available.
+     *
+     * @param barcode input
+     * @return the product, null if bar code is not found
+     */
+    Product findProduct(int barcode) {
+        Warm w = warm.get(barcode);
+        if (w != null && w.isCurrent(basketGeneration, catalogVersion.getAsLong())) {
+            w.used = true;
+            hits.incrementAndGet();
+            return w.product;
+        }
+        misses.incrementAndGet();
+        return salesService.findProduct(barcode);
+    }
+
+    /**
+     * Register a successful scan and start warming the likely next products.
+     *
+     * @param barcode of the scanned product
+     */
+    void scanned(int barcode) {
+        basket.add(barcode);
+        Successors next = successors.get(barcode);
+        if (next != null) {
+            // basket and catalog as of this scan: a basket end or catalog
+            // change before the prefetch is done makes its entries stale
+            int basketGen = basketGeneration;
+            long catalogGen = catalogVersion.getAsLong();
+            executor.execute(() -> warm(next.candidates(), basketGen, catalogGen));
+        }
+    }
+
+    /**
+     * The basket is finalized: learn its scan order and drop the prefetched
+     * products that were not used.
+     */
+    void basketFinished() {
+        learn(basket);
+        basket.clear();
+        dropWarm();
+    }
+
+    /**
+     * Learn from one basket in scan order. Each bar code counts as successor
+     * of the bar code scanned before it.
+     *
+     * @param scanOrder bar codes in the order they were scanned
+     */
+    void learn(List<Integer> scanOrder) {
+        for (int i = 1; i < scanOrder.size(); i++) {
+            successors.computeIfAbsent(scanOrder.get(i - 1), b -> new Successors(topK))
+                    .count(scanOrder.get(i));
+        }
+    }
+
+    /**
+     * Successors currently remembered for a bar code, most frequent first.
+     *
+     * @param barcode to get the successors for
+     * @return successor bar codes, empty when none are known
+     */
+    int[] successorsOf(int barcode) {
+        Successors next = successors.get(barcode);
+        return next == null ? new int[0] : next.candidates();
+    }
+
+    private void dropWarm() {
+        int current = basketGeneration;
+        basketGeneration = current + 1;
+        for (Warm w : warm.values()) {
+            if (w.basket == current && !w.used) {
+                wasted.incrementAndGet();
+            }
+        }
+        warm.clear();
+    }
+
+    private void warm(int[] candidates, int basketGen, long catalogGen) {
+        for (int barcode : candidates) {
+            Warm present = warm.get(barcode);
+            if (present != null && present.isCurrent(basketGen, catalogGen)) {
+                continue;
+            }
+            // null when the product left the catalog, nothing to warm
+            Product p = salesService.findProduct(barcode);
+            if (p != null) {
+                warm.put(barcode, new Warm(p, basketGen, catalogGen));
+                prefetched.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Scans served from the prefetched products.
+     *
+     * @return number of hits
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Scans that had to wait for the sales service.
+     *
+     * @return number of misses
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Products looked up ahead of their scan.
+     *
+     * @return number of prefetched products
+     */
+    long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * Prefetched products that were never scanned before the basket was
+     * finalized.
+     *
+     * @return number of wasted prefetches
+     */
+    long getWasted() {
+        return wasted.get();
+    }
+
+    /**
+     * Fraction of lookups served from the prefetched products.
+     *
+     * @return hit rate between 0 and 1, 0 when nothing was looked up yet
+     */
+    double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * A prefetched product and the basket and catalog it was fetched in.
+     */
+    private static final class Warm {
+
+        final Product product;
+        final int basket;
+        final long catalog;
+        volatile boolean used = false;
+
+        Warm(Product product, int basket, long catalog) {
+            this.product = product;
+            this.basket = basket;
+            this.catalog = catalog;
+        }
+
+        boolean isCurrent(int basketGeneration, long catalogVersion) {
+            return basket == basketGeneration && catalog == catalogVersion;
+        }
+    }
+
+    /**
+     * Bounded successor counts of one bar code. When full, a new successor
+     * replaces the least frequent one and inherits its count (space saving),
+     * so a newly popular successor can still climb into the top.
+     */
+    private static final class Successors {
+
+        private final int[] barcodes;
+        private final int[] counts;
+        private int size = 0;
+
+        Successors(int topK) {
+            this.barcodes = new int[topK];
+            this.counts = new int[topK];
+        }
+
+        synchronized void count(int barcode) {
+            int min = 0;
+            for (int i = 0; i < size; i++) {
+                if (barcodes[i] == barcode) {
+                    counts[i]++;
+                    return;
+                }
+                if (counts[i] < counts[min]) {
+                    min = i;
+                }
+            }
+            if (size < barcodes.length) {
+                barcodes[size] = barcode;
+                counts[size] = 1;
+                size++;
+            } else {
+                barcodes[min] = barcode;
+                counts[min]++;
+            }
+        }
+
+        synchronized int[] candidates() {
+            int[] result = new int[size];
+            int[] c = new int[size];
+            // insertion sort on count, size is tiny
+            for (int i = 0; i < size; i++) {
+                int j = i;
+                while (j > 0 && c[j - 1] < counts[i]) {
+                    result[j] = result[j - 1];
+                    c[j] = c[j - 1];
+                    j--;
+                }
+                result[j] = barcodes[i];
+                c[j] = counts[i];
+            }
+            return result;
+        }
+    }
+}
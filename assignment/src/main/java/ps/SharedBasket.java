@@ -0,0 +1,142 @@
+package ps;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sales transaction fed by several scanners at once, e.g. the fixed scanner
+ * and a handheld of one lane. This is the concurrent counterpart of the
+ * basket kept inside {@link CashRegister}.
+ *
+ * The first scan of a product creates its salesRecord; concurrent first scans
+ * of the same product agree on one record and the losers increase its
+ * quantity. Quantities are increased lock free (see
+ * {@link SalesRecord#increaseQuantity(int)}). The order of first scans is
+ * preserved, perishables first as on the receipt of the CashRegister.
+ *
+ * Each scanner has its own last scanned product, so a price correction for a
+ * perishable applies to the line that scanner scanned last. When both
+ * scanners correct the same line, the last correction wins as a whole.
+ *
+ * Printing the receipt and finalizing are done after the scanners are done
+ * with the transaction.
+ */
+class SharedBasket {
+
+    private final Clock clock;
+    private final Printer printer;
+    private final UI ui;
+    private final SalesService salesService;
+
+    private final Map<Product, SalesRecord> lines = new ConcurrentHashMap<>();
+    private final Queue<Product> scanOrderP = new ConcurrentLinkedQueue<>();
+    private final Queue<Product> scanOrder = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, Product> lastScanned = new ConcurrentHashMap<>();
+
+    /**
+     * Create a shared basket.
+     *
+     * @param clock        wall clock
+     * @param printer      to use
+     * @param ui           to use
+     * @param salesService to use
+     */
+    SharedBasket(Clock clock, Printer printer, UI ui, SalesService salesService) {
+        this.clock = clock;
+        this.printer = printer;
+        this.ui = ui;
+        this.salesService = salesService;
+    }
+
+    /**
+     * Scan a product on the given scanner. Same behavior as
+     * {@link CashRegister#scan(int)}, safe to call from several threads.
+     *
+     * @param scannerId scanner that read the bar code
+     * @param barcode   read
+     */
+    public void scan(int scannerId, int barcode) {
+        Product product = this.salesService.findProduct(barcode);
+        if (product == null) {
+            this.ui.displayErrorMessage("This product is unknown");
+            return;
+        }
+        this.ui.displayProduct(product);
+
+        SalesRecord line = this.lines.get(product);
+        if (line != null) {
+            line.increaseQuantity(1);
+        } else {
+            SalesRecord sale = new SalesRecord(barcode, LocalDate.now(this.clock), product.getPrice());
+            SalesRecord winner = this.lines.putIfAbsent(product, sale);
+            if (winner != null) {
+                winner.increaseQuantity(1);
+            } else if (product.isPerishable()) {
+                this.scanOrderP.add(product);
+                this.ui.displayCalendar();
+            } else {
+                this.scanOrder.add(product);
+            }
+        }
+        this.lastScanned.put(scannerId, product);
+    }
+
+    /**
+     * Correct the sales price of the product last scanned on the given
+     * scanner, like {@link CashRegister#correctSalesPrice(LocalDate)}.
+     * The best before date is stored in the salesRecord.
+     *
+     * @param scannerId      scanner that scanned the perishable product
+     * @param bestBeforeDate selected by the cashier
+     * @throws UnknownBestBeforeException in case the best before date is null.
+     */
+    public void correctSalesPrice(int scannerId, LocalDate bestBeforeDate) throws UnknownBestBeforeException {
+        if (bestBeforeDate == null) {
+            throw new UnknownBestBeforeException("Best before date must not be null!");
+        }
+        Product product = this.lastScanned.get(scannerId);
+        if (product == null || !product.isPerishable()) {
+            return;
+        }
+        int daysLeft = PricingTable.daysLeft(LocalDate.now(this.clock), bestBeforeDate);
+        SalesRecord line = this.lines.get(product);
+        // both scanners may correct the same line: price and date must come
+        // from the same correction
+        synchronized (line) {
+            line.setSalesPrice(PricingTable.STANDARD.price(product.getPrice(), daysLeft));
+            line.setBestBeforeDate(bestBeforeDate);
+        }
+    }
+
+    /**
+     * Print the receipt, perishables first, each group in order of first scan.
+     */
+    public void printReceipt() {
+        for (Product p : this.scanOrderP) {
+            this.printer.println(CashRegister.receiptLine(p, this.lines.get(p)));
+        }
+        for (Product p : this.scanOrder) {
+            this.printer.println(CashRegister.receiptLine(p, this.lines.get(p)));
+        }
+    }
+
+    /**
+     * Submit all salesRecords to the sales service and reset the basket.
+     */
+    public void finalizeSalesTransaction() {
+        for (Product p : this.scanOrderP) {
+            this.salesService.sold(this.lines.get(p));
+        }
+        for (Product p : this.scanOrder) {
+            this.salesService.sold(this.lines.get(p));
+        }
+        this.lines.clear();
+        this.scanOrderP.clear();
+        this.scanOrder.clear();
+        this.lastScanned.clear();
+    }
+}
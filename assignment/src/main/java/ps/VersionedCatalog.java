@@ -0,0 +1,332 @@
+package ps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory catalog that takes price changes and new products during the day
+ * without stopping the lanes.
+ *
+ * Lookups read the current snapshot, which is immutable. A batch of deltas
+ * builds a new snapshot next to it and publishes it with a single volatile
+ * write; lookups in progress simply finish on the old one. Snapshots are
+ * persistent hash tries on the bar code, so a new snapshot shares all
+ * untouched nodes with the previous one and a batch costs in proportion to
+ * its size, not to the size of the catalog.
+ *
+ * On request every snapshot carries a {@link BarcodeBloomFilter} of its bar
+ * codes, extended with the inserted bar codes on each batch, so a
+ * {@link BarcodeValidator} reading it never rejects a product added later.
+ *
+ * Sales are registered at the given sales service.
+ */
+class VersionedCatalog implements SalesService {
+
+    private final SalesService sales;
+    private volatile Snapshot current = new Snapshot(0, Node.EMPTY, 0, null);
+
+    /**
+     * Create an empty catalog.
+     *
+     * @param sales to register sold salesRecords at
+     */
+    VersionedCatalog(SalesService sales) {
+        this.sales = sales;
+    }
+
+    @Override
+    public Product lookupProduct(int barcode) throws UnknownProductException {
+        Product p = current.lookup(barcode);
+        if (p == null) {
+            throw new UnknownProductException("This product is unknown");
+        }
+        return p;
+    }
+
+    @Override
+    public Product findProduct(int barcode) {
+        return current.lookup(barcode);
+    }
+
+    @Override
+    public void sold(SalesRecord salesRecord) {
+        sales.sold(salesRecord);
+    }
+
+    /**
+     * The snapshot lookups currently read.
+     *
+     * @return current snapshot
+     */
+    Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Apply a batch of deltas and publish the result as the next version.
+     * The batch is all or nothing: if a price update refers to a product that
+     * does not exist, nothing is published. Deleting an absent product is
+     * ignored.
+     *
+     * @param batch of deltas, applied in order
+     * @return the published snapshot
+     * @throws IllegalArgumentException if a price update names an unknown
+     *                                  product
+     */
+    synchronized Snapshot apply(List<CatalogDelta> batch) {
+        Snapshot base = current;
+        Node root = base.root;
+        int size = base.size;
+        int[] inserted = new int[base.filter == null ? 0 : 16];
+        int insertedCount = 0;
+        for (CatalogDelta d : batch) {
+            switch (d.getKind()) {
+                case INSERT: {
+                    if (Node.find(root, d.getBarcode()) == null) {
+                        size++;
+                        if (base.filter != null) {
+                            if (insertedCount == inserted.length) {
+                                inserted = Arrays.copyOf(inserted, 2 * insertedCount);
+                            }
+                            inserted[insertedCount++] = d.getBarcode();
+                        }
+                    }
+                    root = Node.put(root, d.getBarcode(), d.getProduct(), 0);
+                    break;
+                }
+                case UPDATE_PRICE: {
+                    Product old = Node.find(root, d.getBarcode());
+                    if (old == null) {
+                        throw new IllegalArgumentException("No product with bar code " + d.getBarcode());
+                    }
+                    Product repriced = new Product(old.getShortName(), old.getDescription(), d.getPrice(),
+                            old.getBarcode(), old.isPerishable());
+                    root = Node.put(root, d.getBarcode(), repriced, 0);
+                    break;
+                }
+                case DELETE: {
+                    if (Node.find(root, d.getBarcode()) != null) {
+                        size--;
+                        root = Node.remove(root, d.getBarcode(), 0);
+                    }
+                    break;
+                }
+            }
+        }
+        // a deleted bar code stays in the filter, the lookup catches it
+        Node newRoot = root;
+        int newSize = size;
+        BarcodeBloomFilter filter = insertedCount == 0 ? base.filter
+                : base.filter.with(Arrays.copyOf(inserted, insertedCount), () -> barcodes(newRoot, newSize));
+        Snapshot next = new Snapshot(base.version + 1, root, size, filter);
+        current = next;
+        return next;
+    }
+
+    /**
+     * Keep a Bloom filter of the bar codes with every snapshot from now on,
+     * see {@link Snapshot#barcodeFilter()}.
+     *
+     * @param falsePositiveRate wanted rate of unknown bar codes let through, e.g. 0.01
+     */
+    synchronized void keepBarcodeFilter(double falsePositiveRate) {
+        Snapshot base = current;
+        BarcodeBloomFilter filter = BarcodeBloomFilter.of(base.barcodes(), falsePositiveRate);
+        current = new Snapshot(base.version, base.root, base.size, filter);
+    }
+
+    /**
+     * Number of trie nodes of after that are not shared with before.
+     * Diagnostic for the cost of a batch.
+     *
+     * @param before older snapshot
+     * @param after  newer snapshot
+     * @return number of new nodes
+     */
+    static int newNodes(Snapshot before, Snapshot after) {
+        Set<Node> old = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(before.root, old);
+        Set<Node> now = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(after.root, now);
+        now.removeAll(old);
+        return now.size();
+    }
+
+    private static int[] barcodes(Node root, int size) {
+        int[] result = new int[size];
+        int n = Node.collectBarcodes(root, result, 0);
+        return n == size ? result : Arrays.copyOf(result, n);
+    }
+
+    private static void collect(Node n, Set<Node> into) {
+        into.add(n);
+        for (Object s : n.slots) {
+            if (s instanceof Node) {
+                collect((Node) s, into);
+            }
+        }
+    }
+
+    /**
+     * Immutable version of the catalog.
+     */
+    static final class Snapshot {
+
+        private final long version;
+        private final Node root;
+        private final int size;
+        private final BarcodeBloomFilter filter;
+
+        private Snapshot(long version, Node root, int size, BarcodeBloomFilter filter) {
+            this.version = version;
+            this.root = root;
+            this.size = size;
+            this.filter = filter;
+        }
+
+        /**
+         * Lookup a product.
+         *
+         * @param barcode input
+         * @return the product, null if not in this version
+         */
+        Product lookup(int barcode) {
+            return Node.find(root, barcode);
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        /**
+         * The bar codes in this version, e.g. to build a
+         * {@link BarcodeBloomFilter}.
+         *
+         * @return bar codes in no particular order
+         */
+        int[] barcodes() {
+            return VersionedCatalog.barcodes(root, size);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Bloom filter of the bar codes in this version.
+         *
+         * @return the filter, null unless the catalog keeps one
+         */
+        BarcodeBloomFilter barcodeFilter() {
+            return filter;
+        }
+    }
+
+    /**
+     * Node of a hash array mapped trie keyed on the bar code itself, five
+     * bits per level. Slots hold either a Product or a child Node; the bitmap
+     * tells which of the 32 positions are present.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        static int collectBarcodes(Node n, int[] into, int from) {
+            for (Object s : n.slots) {
+                if (s instanceof Node) {
+                    from = collectBarcodes((Node) s, into, from);
+                } else {
+                    into[from++] = ((Product) s).getBarcode();
+                }
+            }
+            return from;
+        }
+
+        static Product find(Node n, int key) {
+            int shift = 0;
+            while (true) {
+                int bit = 1 << ((key >>> shift) & 31);
+                if ((n.bitmap & bit) == 0) {
+                    return null;
+                }
+                Object s = n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+                if (s instanceof Node) {
+                    n = (Node) s;
+                    shift += 5;
+                } else {
+                    Product p = (Product) s;
+                    return p.getBarcode() == key ? p : null;
+                }
+            }
+        }
+
+        static Node put(Node n, int key, Product p, int shift) {
+            int bit = 1 << ((key >>> shift) & 31);
+            int idx = Integer.bitCount(n.bitmap & (bit - 1));
+            if ((n.bitmap & bit) == 0) {
+                Object[] slots = new Object[n.slots.length + 1];
+                System.arraycopy(n.slots, 0, slots, 0, idx);
+                slots[idx] = p;
+                System.arraycopy(n.slots, idx, slots, idx + 1, n.slots.length - idx);
+                return new Node(n.bitmap | bit, slots);
+            }
+            Object s = n.slots[idx];
+            Object replacement;
+            if (s instanceof Node) {
+                replacement = put((Node) s, key, p, shift + 5);
+            } else if (((Product) s).getBarcode() == key) {
+                replacement = p;
+            } else {
+                // two bar codes share this position: push both one level down
+                Product other = (Product) s;
+                replacement = put(put(EMPTY, other.getBarcode(), other, shift + 5), key, p, shift + 5);
+            }
+            Object[] slots = n.slots.clone();
+            slots[idx] = replacement;
+            return new Node(n.bitmap, slots);
+        }
+
+        static Node remove(Node n, int key, int shift) {
+            int bit = 1 << ((key >>> shift) & 31);
+            if ((n.bitmap & bit) == 0) {
+                return n;
+            }
+            int idx = Integer.bitCount(n.bitmap & (bit - 1));
+            Object s = n.slots[idx];
+            Object replacement;
+            if (s instanceof Node) {
+                Node child = remove((Node) s, key, shift + 5);
+                if (child == s) {
+                    return n;
+                }
+                // a child left with a single product is replaced by that product
+                replacement = child.slots.length == 0 ? null
+                        : child.slots.length == 1 && !(child.slots[0] instanceof Node) ? child.slots[0] : child;
+            } else if (((Product) s).getBarcode() == key) {
+                replacement = null;
+            } else {
+                return n;
+            }
+            if (replacement != null) {
+                Object[] slots = n.slots.clone();
+                slots[idx] = replacement;
+                return new Node(n.bitmap, slots);
+            }
+            Object[] slots = new Object[n.slots.length - 1];
+            System.arraycopy(n.slots, 0, slots, 0, idx);
+            System.arraycopy(n.slots, idx + 1, slots, idx, n.slots.length - idx - 1);
+            return new Node(n.bitmap & ~bit, slots);
+        }
+    }
+}
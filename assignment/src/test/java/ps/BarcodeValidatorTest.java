@@ -0,0 +1,126 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pre-validation of scanned bar codes.
+ */
+public class BarcodeValidatorTest {
+
+    @Test
+    void checkDigit() {
+        SoftAssertions.assertSoftly(softly -> {
+            // EAN-8 from a real package
+            softly.assertThat(BarcodeValidator.hasValidCheckDigit(96_385_074)).isTrue();
+            softly.assertThat(BarcodeValidator.hasValidCheckDigit(96_385_075)).isFalse();
+            // swapped neighbours are caught too
+            softly.assertThat(BarcodeValidator.hasValidCheckDigit(93_685_074)).isFalse();
+            softly.assertThat(BarcodeValidator.appendCheckDigit(9_638_507)).isEqualTo(96_385_074);
+            softly.assertThat(BarcodeValidator.hasValidCheckDigit(0)).isFalse();
+            softly.assertThat(BarcodeValidator.hasValidCheckDigit(-96_385_074)).isFalse();
+        });
+    }
+
+    @Test
+    void appendedCheckDigitIsValid() {
+        new Random(38).ints(1_000, 1, 200_000_000).forEach(payload
+                -> assertThat(BarcodeValidator.hasValidCheckDigit(BarcodeValidator.appendCheckDigit(payload)))
+                        .as("check digit of %d", payload).isTrue());
+    }
+
+    @Test
+    void ranges() {
+        BarcodeValidator validator = BarcodeValidator.ACCEPT_ALL
+                .withRange(1_000, 1_999)
+                .withRange(8_710_000, 8_719_999);
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(BarcodeValidator.ACCEPT_ALL.isValid(123)).isTrue();
+            softly.assertThat(validator.isValid(1_000)).isTrue();
+            softly.assertThat(validator.isValid(1_999)).isTrue();
+            softly.assertThat(validator.isValid(2_000)).isFalse();
+            softly.assertThat(validator.isValid(8_715_000)).isTrue();
+            softly.assertThat(validator.isValid(999)).isFalse();
+        });
+        assertThatThrownBy(() -> validator.withRange(5, 4)).isExactlyInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void bloomFilterKeepsAllKnownAndRejectsMostUnknown() {
+        int[] known = IntStream.range(0, 100_000).map(i -> 8_700_000 + 7 * i).toArray();
+        BarcodeBloomFilter filter = BarcodeBloomFilter.of(known, 0.01);
+        BarcodeValidator validator = BarcodeValidator.ACCEPT_ALL.withKnownBarcodes(filter);
+
+        assertThat(IntStream.of(known)).allMatch(validator::isValid);
+        long letThrough = IntStream.range(0, 100_000).map(i -> 8_700_000 + 7 * i + 3)
+                .filter(validator::isValid).count();
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(letThrough).isLessThan(2_000);
+            // about 10 bits per bar code
+            softly.assertThat(filter.bitCount()).isBetween(900_000, 1_000_000);
+        });
+    }
+
+    @Test
+    void filterFromCatalogSnapshot() {
+        VersionedCatalog catalog = new VersionedCatalog(new FreshProductSalesService());
+        catalog.apply(IntStream.range(0, 1_000)
+                .mapToObj(i -> CatalogDelta.insert(new Product("p" + i, "Product " + i, 100, 4_000 + i, false)))
+                .collect(Collectors.toList()));
+
+        int[] barcodes = catalog.snapshot().barcodes();
+        BarcodeBloomFilter filter = BarcodeBloomFilter.of(barcodes, 0.01);
+
+        assertThat(barcodes).hasSize(1_000).containsOnly(IntStream.range(4_000, 5_000).toArray());
+        assertThat(IntStream.range(4_000, 5_000)).allMatch(filter::mightContain);
+    }
+
+    /**
+     * The filter follows the catalog: a product inserted after the validator
+     * was set up is accepted, also past the size the first filter was built
+     * for, and older snapshots keep their own filter.
+     */
+    @Test
+    void productsInsertedLaterAreAccepted() {
+        VersionedCatalog catalog = new VersionedCatalog(new FreshProductSalesService());
+        catalog.apply(IntStream.range(0, 100)
+                .mapToObj(i -> CatalogDelta.insert(new Product("p" + i, "Product " + i, 100, 4_000 + i, false)))
+                .collect(Collectors.toList()));
+        catalog.keepBarcodeFilter(0.01);
+        BarcodeValidator validator = BarcodeValidator.ACCEPT_ALL.withKnownBarcodes(catalog);
+        VersionedCatalog.Snapshot before = catalog.snapshot();
+
+        catalog.apply(List.of(CatalogDelta.insert(new Product("late", "Late", 100, 6_000, false))));
+        catalog.apply(IntStream.range(0, 1_000)
+                .mapToObj(i -> CatalogDelta.insert(new Product("q" + i, "More " + i, 100, 10_000 + i, false)))
+                .collect(Collectors.toList()));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(validator.isValid(6_000)).isTrue();
+            softly.assertThat(IntStream.range(4_000, 4_100)).allMatch(validator::isValid);
+            softly.assertThat(IntStream.range(10_000, 11_000)).allMatch(validator::isValid);
+            softly.assertThat(IntStream.range(20_000, 30_000).filter(validator::isValid).count()).isLessThan(300);
+            softly.assertThat(before.barcodeFilter().mightContain(6_000)).isFalse();
+            softly.assertThat(catalog.snapshot().barcodeFilter().bitCount())
+                    .isGreaterThan(before.barcodeFilter().bitCount());
+        });
+    }
+
+    @Test
+    void catalogWithoutFilterAcceptsAll() {
+        VersionedCatalog catalog = new VersionedCatalog(new FreshProductSalesService());
+        BarcodeValidator validator = BarcodeValidator.ACCEPT_ALL.withKnownBarcodes(catalog);
+
+        assertThat(catalog.snapshot().barcodeFilter()).isNull();
+        assertThat(validator.isValid(1_234)).isTrue();
+    }
+}
@@ -0,0 +1,144 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Allocation budgets of the checkout hot path. Garbage on the scan path shows
+ * up as GC pauses and therefore as scanner lag, so once warmed up the
+ * operations below must stay within their declared number of bytes per
+ * operation. Measured with the per thread allocation counter of the JVM,
+ * using stand-ins that do not allocate themselves.
+ */
+public class CashRegisterAllocationTest {
+
+    /**
+     * Scanning a product that is already in the basket is garbage free.
+     */
+    static final long SCAN_REPEAT_BUDGET = 0;
+
+    /**
+     * Price correction reads the clock's Instant and creates today's
+     * LocalDate, 24 bytes each on a 64 bit JVM with compressed oops (about
+     * 40 bytes measured, the JIT drops part of it). Counting the days with
+     * ChronoUnit.DAYS and storing the given best before date on the line do
+     * not allocate.
+     */
+    static final long CORRECT_PRICE_BUDGET = 64;
+
+    /**
+     * A receipt line needs the String handed to the printer (about 125 bytes
+     * for the lines used here).
+     */
+    static final long PRINT_LINE_BUDGET = 256;
+
+    static final int WARMUP = 20_000;
+    static final int MEASURED = 10_000;
+
+    static com.sun.management.ThreadMXBean threads;
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Clock clock = Clock.fixed(ZonedDateTime.of(2021, 3, 1, 12, 0, 0, 0, ZoneId.of("Europe/Amsterdam")).toInstant(),
+            ZoneId.of("Europe/Amsterdam"));
+    LocalDate bestBefore = LocalDate.now(clock).plusDays(1);
+
+    CashRegister cashRegister;
+
+    @BeforeAll
+    static void allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "per thread allocation counter not available");
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "per thread allocation counter not supported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @BeforeEach
+    void setup() {
+        cashRegister = new CashRegister(clock, line -> {
+        }, new NoOpUI(), new SalesService() {
+            @Override
+            public Product lookupProduct(int barcode) {
+                return barcode == banana.getBarcode() ? banana : lamp;
+            }
+
+            @Override
+            public void sold(SalesRecord salesRecord) {
+            }
+        });
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+    }
+
+    @Test
+    void scanRepeatedBarcode() {
+        assertThat(bytesPerOperation(() -> cashRegister.scan(lamp.getBarcode())))
+                .as("bytes per repeated scan")
+                .isLessThanOrEqualTo(SCAN_REPEAT_BUDGET);
+    }
+
+    @Test
+    void scanRejectedBarcode() {
+        cashRegister.setBarcodeValidator(BarcodeValidator.ACCEPT_ALL.withCheckDigit()
+                .withKnownBarcodes(BarcodeBloomFilter.of(new int[]{lamp.getBarcode(), banana.getBarcode()}, 0.01)));
+        assertThat(bytesPerOperation(() -> cashRegister.scan(1_235)))
+                .as("bytes per rejected scan")
+                .isLessThanOrEqualTo(SCAN_REPEAT_BUDGET);
+    }
+
+    @Test
+    void correctSalesPrice() {
+        cashRegister.scan(banana.getBarcode());
+        assertThat(bytesPerOperation(() -> {
+            try {
+                cashRegister.correctSalesPrice(bestBefore);
+            } catch (UnknownBestBeforeException e) {
+                throw new IllegalStateException(e);
+            }
+        }))
+                .as("bytes per price correction")
+                .isLessThanOrEqualTo(CORRECT_PRICE_BUDGET);
+    }
+
+    @Test
+    void printReceipt() {
+        // two lines per receipt
+        assertThat(bytesPerOperation(cashRegister::printReceipt))
+                .as("bytes per receipt of two lines")
+                .isLessThanOrEqualTo(2 * PRINT_LINE_BUDGET);
+    }
+
+    /**
+     * Warm up, then measure the average number of bytes allocated by one
+     * invocation on this thread. The cost of reading the counter is measured
+     * with an empty operation and subtracted.
+     */
+    private long bytesPerOperation(Runnable operation) {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        long overhead = measure(() -> {
+        });
+        return Math.max(0, measure(operation) - overhead) / MEASURED;
+    }
+
+    private long measure(Runnable operation) {
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < MEASURED; i++) {
+            operation.run();
+        }
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+}
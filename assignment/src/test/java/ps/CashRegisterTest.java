@@ -20,6 +20,9 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -70,6 +73,14 @@ public class CashRegisterTest {
     @BeforeEach
     void setup() {
         cashRegister = new CashRegister(clock, printer, ui, salesService);
+        // scan uses findProduct; answer it like the default method, from the trained lookupProduct
+        lenient().when(salesService.findProduct(anyInt())).thenAnswer(invocation -> {
+            try {
+                return salesService.lookupProduct(invocation.getArgument(0));
+            } catch (UnknownProductException e) {
+                return null;
+            }
+        });
     }
 
     /**
@@ -296,6 +307,37 @@ public class CashRegisterTest {
         //fail( "method lookupUnknownProduct... reached end. You know what to do." );
     }
 
+    /**
+     * An unknown product is not displayed, only the error message is.
+     */
+    @Test
+    public void unknownProductIsNotDisplayed() throws UnknownProductException {
+        when(salesService.lookupProduct(123)).thenThrow(new UnknownProductException("This product is unknown"));
+
+        cashRegister.scan(123);
+
+        verify(ui).displayErrorMessage("This product is unknown");
+        verify(ui, never()).displayProduct(any());
+    }
+
+    /**
+     * A bar code rejected by the validator never reaches the salesService.
+     */
+    @Test
+    public void misreadIsRejectedWithoutLookup() throws UnknownProductException {
+        int valid = BarcodeValidator.appendCheckDigit(871_039);
+        Product milk = new Product("milk", "Halfvolle melk", 109, valid, true);
+        when(salesService.lookupProduct(valid)).thenReturn(milk);
+        cashRegister.setBarcodeValidator(BarcodeValidator.ACCEPT_ALL.withCheckDigit());
+
+        cashRegister.scan(valid + 1);
+        cashRegister.scan(valid);
+
+        verify(ui).displayErrorMessage("This product is unknown");
+        verify(salesService, never()).lookupProduct(valid + 1);
+        verify(ui).displayProduct(milk);
+    }
+
     /**
      * Test that a product that is scanned twice, is registered in the
      * salesService with the proper quantity AND make sure printer prints the
@@ -330,6 +372,197 @@ public class CashRegisterTest {
         //fail( "method scanProductTwice reached end. You know what to do." );
     }
 
+    /**
+     * A sales service that returns a new Product instance on every lookup
+     * must still result in one basket line and one sold record per product.
+     */
+    @Test
+    public void freshInstancesPerLookupShareOneLine() {
+        FreshProductSalesService fresh = new FreshProductSalesService(lamp, banana);
+        CashRegister register = new CashRegister(clock, printer, ui, new InterningSalesService(fresh));
+
+        register.scan(lamp.getBarcode());
+        register.scan(banana.getBarcode());
+        register.scan(lamp.getBarcode());
+        register.finalizeSalesTransaction();
+
+        assertThat(fresh.sold)
+                .extracting(SalesRecord::getBarcode, SalesRecord::getQuantity)
+                .containsExactlyInAnyOrder(tuple(lamp.getBarcode(), 2), tuple(banana.getBarcode(), 1));
+    }
+
+    /**
+     * With a 3 for 2 offer on lamps, scanning three lamps prints the discount
+     * after the product lines and registers it as a negative salesRecord
+     * carrying the promotion code.
+     */
+    @Test
+    public void promotionOnReceiptAndInSales() throws UnknownProductException {
+        when(salesService.lookupProduct(lamp.getBarcode())).thenReturn(lamp);
+        cashRegister.setPromotionEngine(new PromotionEngine(List.of(Promotion.multiBuy(42, "3 for 2 lamps", lamp.getBarcode(), 3, 2))));
+
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.printReceipt();
+        cashRegister.finalizeSalesTransaction();
+
+        verify(printer, times(2)).println(stringLineCaptor.capture());
+        verify(salesService, times(2)).sold(salesRecordCaptor.capture());
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(stringLineCaptor.getAllValues()).containsExactly(
+                    "Product: Led Lamp, Sales price: 250, Quantity: 3",
+                    "Promotion: 3 for 2 lamps, Discount: 250");
+            softly.assertThat(salesRecordCaptor.getAllValues())
+                    .extracting(r -> tuple(r.getBarcode(), r.getSalesPrice(), r.getQuantity()))
+                    .containsExactly(tuple(lamp.getBarcode(), 250, 3), tuple(-42, -250, 1));
+        });
+    }
+
+    /**
+     * Voiding the last scan takes one item off; voiding again removes the
+     * line. The remaining lines keep their order, perishables first.
+     */
+    @Test
+    public void voidLastUndoesScansInReverseOrder() throws UnknownProductException {
+        when(salesService.lookupProduct(lamp.getBarcode())).thenReturn(lamp);
+        when(salesService.lookupProduct(banana.getBarcode())).thenReturn(banana);
+        when(salesService.lookupProduct(cheese.getBarcode())).thenReturn(cheese);
+
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(cheese.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.voidLast();
+        cashRegister.voidLast();
+        cashRegister.printReceipt();
+
+        verify(printer, times(2)).println(stringLineCaptor.capture());
+        assertThat(stringLineCaptor.getAllValues()).containsExactly(
+                "Product: " + banana.getDescription() + ", Sales price: 150, Quantity: 1",
+                "Product: " + lamp.getDescription() + ", Sales price: 250, Quantity: 1");
+    }
+
+    /**
+     * After voiding the last scan, a price correction applies to the
+     * perishable scanned before it, which is shown on the display again.
+     */
+    @Test
+    public void voidLastRestoresPreviousLastScanned() throws UnknownProductException, UnknownBestBeforeException {
+        when(salesService.lookupProduct(banana.getBarcode())).thenReturn(banana);
+        when(salesService.lookupProduct(cheese.getBarcode())).thenReturn(cheese);
+
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.scan(cheese.getBarcode());
+        cashRegister.voidLast();
+        cashRegister.correctSalesPrice(LocalDate.now(clock));
+        cashRegister.finalizeSalesTransaction();
+
+        verify(ui, times(2)).displayProduct(banana);
+        verify(salesService).sold(salesRecordCaptor.capture());
+        assertThat(salesRecordCaptor.getValue())
+                .extracting(SalesRecord::getBarcode, SalesRecord::getSalesPrice)
+                .containsExactly(banana.getBarcode(), 52);
+    }
+
+    /**
+     * Voiding the perishable scanned after a lamp leaves the lamp as last
+     * scanned; a price correction then does not touch the lamp.
+     */
+    @Test
+    public void correctionAfterVoidToNonPerishableIsIgnored() throws UnknownProductException, UnknownBestBeforeException {
+        when(salesService.lookupProduct(lamp.getBarcode())).thenReturn(lamp);
+        when(salesService.lookupProduct(banana.getBarcode())).thenReturn(banana);
+
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.voidLast();
+        cashRegister.correctSalesPrice(LocalDate.now(clock));
+        cashRegister.finalizeSalesTransaction();
+
+        verify(ui, times(2)).displayProduct(lamp);
+        verify(salesService).sold(salesRecordCaptor.capture());
+        assertThat(salesRecordCaptor.getValue())
+                .extracting(SalesRecord::getBarcode, SalesRecord::getSalesPrice, SalesRecord::getBestBeforeDate)
+                .containsExactly(lamp.getBarcode(), 250, LocalDate.MAX);
+    }
+
+    /**
+     * Voiding the only item clears the display, a correction afterwards has
+     * nothing to correct.
+     */
+    @Test
+    public void voidingLastItemClearsDisplay() throws UnknownProductException, UnknownBestBeforeException {
+        when(salesService.lookupProduct(banana.getBarcode())).thenReturn(banana);
+
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.voidLast();
+        cashRegister.correctSalesPrice(LocalDate.now(clock));
+        cashRegister.finalizeSalesTransaction();
+
+        verify(ui).displayProduct(banana);
+        verify(ui).displayErrorMessage("The basket is empty");
+        verify(salesService, never()).sold(any());
+    }
+
+    /**
+     * Voiding a line by bar code removes it whatever the quantity; decreasing
+     * the quantity takes items off the line.
+     */
+    @Test
+    public void voidLineAndDecreaseQuantity() throws UnknownProductException {
+        when(salesService.lookupProduct(lamp.getBarcode())).thenReturn(lamp);
+        when(salesService.lookupProduct(banana.getBarcode())).thenReturn(banana);
+        when(salesService.lookupProduct(cheese.getBarcode())).thenReturn(cheese);
+
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.scan(banana.getBarcode());
+        cashRegister.scan(cheese.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.voidLine(banana.getBarcode());
+        cashRegister.decreaseQuantity(lamp.getBarcode(), 2);
+        cashRegister.finalizeSalesTransaction();
+
+        verify(salesService, times(2)).sold(salesRecordCaptor.capture());
+        assertThat(salesRecordCaptor.getAllValues())
+                .extracting(SalesRecord::getBarcode, SalesRecord::getQuantity)
+                .containsExactly(tuple(lamp.getBarcode(), 1), tuple(cheese.getBarcode(), 1));
+    }
+
+    /**
+     * Voiding with an empty basket or a product that was not scanned shows
+     * an error message.
+     */
+    @Test
+    public void voidWithoutScanShowsErrorMessage() {
+        cashRegister.voidLast();
+        cashRegister.voidLine(lamp.getBarcode());
+        cashRegister.decreaseQuantity(lamp.getBarcode(), 1);
+
+        verify(ui).displayErrorMessage("Nothing to void");
+        verify(ui, times(2)).displayErrorMessage("This product is not in the basket");
+    }
+
+    /**
+     * Taking items off a line updates the promotion discount.
+     */
+    @Test
+    public void voidUpdatesPromotion() throws UnknownProductException {
+        when(salesService.lookupProduct(lamp.getBarcode())).thenReturn(lamp);
+        cashRegister.setPromotionEngine(new PromotionEngine(List.of(Promotion.multiBuy(42, "3 for 2 lamps", lamp.getBarcode(), 3, 2))));
+
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.scan(lamp.getBarcode());
+        cashRegister.voidLast();
+        cashRegister.printReceipt();
+
+        verify(printer).println(stringLineCaptor.capture());
+        assertThat(stringLineCaptor.getAllValues()).containsExactly("Product: Led Lamp, Sales price: 250, Quantity: 2");
+    }
+
 /*    @Test
     public void fixIt() throws UnknownProductException, UnknownBestBeforeException {
         when(salesService.lookupProduct(banana.getBarcode())).thenReturn(banana);
@@ -0,0 +1,38 @@
+package ps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sales service stand-in that behaves like a remote catalog: every lookup
+ * returns a new Product instance. Sold records are kept for inspection.
+ */
+class FreshProductSalesService implements SalesService {
+
+    private final Map<Integer, Product> catalog = new HashMap<>();
+    final List<SalesRecord> sold = new ArrayList<>();
+    int lookups = 0;
+
+    FreshProductSalesService(Product... products) {
+        for (Product p : products) {
+            catalog.put(p.getBarcode(), p);
+        }
+    }
+
+    @Override
+    public synchronized Product lookupProduct(int barcode) throws UnknownProductException {
+        lookups++;
+        Product p = catalog.get(barcode);
+        if (p == null) {
+            throw new UnknownProductException("This product is unknown");
+        }
+        return new Product(p.getShortName(), p.getDescription(), p.getPrice(), p.getBarcode(), p.isPerishable());
+    }
+
+    @Override
+    public synchronized void sold(SalesRecord salesRecord) {
+        sold.add(salesRecord);
+    }
+}
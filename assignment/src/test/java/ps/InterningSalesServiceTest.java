@@ -0,0 +1,65 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The interning layer must hand out one instance per bar code, also when the
+ * underlying service creates a new product on every lookup.
+ */
+public class InterningSalesServiceTest {
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+
+    FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana);
+    InterningSalesService service = new InterningSalesService(catalog);
+
+    @Test
+    void repeatedLookupsReturnSameInstance() throws UnknownProductException {
+        Product first = service.lookupProduct(lamp.getBarcode());
+        Product second = service.lookupProduct(lamp.getBarcode());
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(second).isSameAs(first);
+            softly.assertThat(catalog.lookups).isEqualTo(2);
+            softly.assertThat(service.size()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void differentBarcodesAreDifferentInstances() throws UnknownProductException {
+        assertThat(service.lookupProduct(lamp.getBarcode()))
+                .isNotSameAs(service.lookupProduct(banana.getBarcode()));
+    }
+
+    @Test
+    void changedContentReplacesCanonicalInstance() throws UnknownProductException {
+        Product old = service.intern(lamp);
+        Product cheaper = new Product("led lamp", "Led Lamp", 199, 1_234, false);
+
+        Product canonical = service.intern(cheaper);
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(canonical).isSameAs(cheaper).isNotSameAs(old);
+            softly.assertThat(service.intern(new Product("led lamp", "Led Lamp", 199, 1_234, false)))
+                    .isSameAs(cheaper);
+        });
+    }
+
+    @Test
+    void unknownProductPassesThrough() {
+        assertThatThrownBy(() -> service.lookupProduct(123))
+                .isExactlyInstanceOf(UnknownProductException.class);
+    }
+
+    @Test
+    void soldIsDelegated() {
+        SalesRecord sr = new SalesRecord(lamp.getBarcode(), null, 250);
+        service.sold(sr);
+        assertThat(catalog.sold).containsExactly(sr);
+    }
+}
@@ -0,0 +1,224 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lazy wiring of a lane and the time to first scan.
+ */
+public class LaneStartupTest {
+
+    static final ZoneId ZONE = ZoneId.of("Europe/Amsterdam");
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Product cheese = new Product("cheese", "Gouda 48+", 800, 7_687, true);
+
+    Clock clock = Clock.fixed(ZonedDateTime.of(2021, 3, 1, 9, 0, 0, 0, ZONE).toInstant(), ZONE);
+    ExecutorService loader = Executors.newSingleThreadExecutor();
+    CountDownLatch catalogLoaded = new CountDownLatch(1);
+    FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana, cheese);
+    FreshProductSalesService warm = new FreshProductSalesService(lamp, banana);
+    FreshProductSalesService fallback = new FreshProductSalesService();
+    List<Product> displayed = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+
+    @AfterEach
+    void stopLoader() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * The first scan of a warm product is done while the catalog is still
+     * loading. The budget only tells waiting from not waiting; the startup
+     * benchmark itself is measured in a fresh JVM by LaneStartup.main.
+     */
+    @Test
+    void timeToFirstScanDoesNotWaitForCatalog() throws InterruptedException {
+        AtomicInteger printersOpened = new AtomicInteger();
+        List<String> printed = new ArrayList<>();
+
+        long t0 = System.nanoTime();
+        CashRegister register = LaneStartup.openLane(clock, () -> {
+            printersOpened.incrementAndGet();
+            return printed::add;
+        }, this::ui, warm, this::loadCatalog, fallback, loader);
+        register.scan(lamp.getBarcode());
+        Duration firstScan = Duration.ofNanos(System.nanoTime() - t0);
+
+        register.scan(banana.getBarcode());
+        register.printReceipt();
+        register.finalizeSalesTransaction();
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(firstScan).isLessThan(Duration.ofMillis(100));
+            softly.assertThat(displayed).containsExactly(lamp, banana);
+            softly.assertThat(printersOpened).hasValue(1);
+            softly.assertThat(printed).hasSize(2);
+            softly.assertThat(catalog.sold).isEmpty();
+        });
+
+        catalogLoaded.countDown();
+        loader.shutdown();
+        loader.awaitTermination(1, TimeUnit.SECONDS);
+        assertThat(catalog.sold).extracting(SalesRecord::getBarcode)
+                .containsExactly(lamp.getBarcode(), banana.getBarcode());
+    }
+
+    @Test
+    void scanOutsideWarmSetWaitsForCatalog() throws Exception {
+        CashRegister register = LaneStartup.openLane(clock, () -> line -> {
+        }, this::ui, warm, this::loadCatalog, fallback, loader);
+
+        CompletableFuture<Void> scan = CompletableFuture.runAsync(() -> register.scan(cheese.getBarcode()));
+        Thread.sleep(50);
+        assertThat(scan).isNotDone();
+
+        catalogLoaded.countDown();
+        scan.get(1, TimeUnit.SECONDS);
+        assertThat(displayed).containsExactly(cheese);
+    }
+
+    /**
+     * When every load fails the lane keeps selling from the warm set and the
+     * sales go to the fallback instead of piling up.
+     */
+    @Test
+    void failedCatalogLoadHandsSalesToFallback() {
+        AtomicInteger loads = new AtomicInteger();
+        LazySalesService sales = new LazySalesService(warm, () -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("catalog unreachable");
+        }, loader, fallback, 3, Duration.ofMillis(10));
+        CashRegister register = new CashRegister(clock, line -> {
+        }, ui(), sales);
+
+        register.scan(lamp.getBarcode());
+        // not in the warm set: waits for the last attempt
+        register.scan(cheese.getBarcode());
+        register.finalizeSalesTransaction();
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(sales.isLoaded()).isFalse();
+            softly.assertThat(sales.isFailed()).isTrue();
+            softly.assertThat(sales.getLoadFailures()).isEqualTo(3);
+            softly.assertThat(loads).hasValue(3);
+            softly.assertThat(displayed).containsExactly(lamp);
+            softly.assertThat(errors).containsExactly("This product is unknown");
+            softly.assertThat(sales.getPending()).isZero();
+            softly.assertThat(fallback.sold).extracting(SalesRecord::getBarcode).containsExactly(lamp.getBarcode());
+        });
+    }
+
+    @Test
+    void failedCatalogLoadIsRetried() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        LazySalesService sales = new LazySalesService(warm, () -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("catalog unreachable");
+            }
+            return catalog;
+        }, loader, fallback, 3, Duration.ofMillis(10));
+        CashRegister register = new CashRegister(clock, line -> {
+        }, ui(), sales);
+
+        register.scan(lamp.getBarcode());
+        register.scan(cheese.getBarcode());
+        register.finalizeSalesTransaction();
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(sales.isLoaded()).isTrue();
+            softly.assertThat(sales.getLoadFailures()).isEqualTo(1);
+            softly.assertThat(displayed).containsExactly(lamp, cheese);
+            softly.assertThat(catalog.sold).extracting(SalesRecord::getBarcode)
+                    .containsExactlyInAnyOrder(lamp.getBarcode(), cheese.getBarcode());
+            softly.assertThat(warm.sold).isEmpty();
+            softly.assertThat(fallback.sold).isEmpty();
+        });
+    }
+
+    /**
+     * The devices start opening at wiring, before the first display or print.
+     */
+    @Test
+    void devicesStartOpeningAtWiring() throws Exception {
+        AtomicInteger opened = new AtomicInteger();
+        CountDownLatch bothOpened = new CountDownLatch(2);
+        LaneStartup.openLane(clock, () -> {
+            opened.incrementAndGet();
+            bothOpened.countDown();
+            return line -> {
+            };
+        }, () -> {
+            opened.incrementAndGet();
+            bothOpened.countDown();
+            return ui();
+        }, warm, () -> catalog, fallback, loader);
+
+        assertThat(bothOpened.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(opened).hasValue(2);
+    }
+
+    @Test
+    void lazyValueIsCreatedOnce() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        Lazy<Object> lazy = new Lazy<>(() -> {
+            created.incrementAndGet();
+            return new Object();
+        });
+        assertThat(lazy.isInitialized()).isFalse();
+
+        List<CompletableFuture<Object>> gets = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            gets.add(CompletableFuture.supplyAsync(lazy));
+        }
+        for (CompletableFuture<Object> get : gets) {
+            assertThat(get.get(1, TimeUnit.SECONDS)).isSameAs(lazy.get());
+        }
+        assertThat(created).hasValue(1);
+        assertThat(lazy.isInitialized()).isTrue();
+    }
+
+    private SalesService loadCatalog() {
+        try {
+            catalogLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return catalog;
+    }
+
+    private UI ui() {
+        return new UI() {
+            @Override
+            public void displayProduct(Product p) {
+                displayed.add(p);
+            }
+
+            @Override
+            public void displayCalendar() {
+            }
+
+            @Override
+            public void displayErrorMessage(String message) {
+                errors.add(message);
+            }
+        };
+    }
+}
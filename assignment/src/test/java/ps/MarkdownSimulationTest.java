@@ -0,0 +1,152 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Replaying history through candidate pricing tables.
+ */
+public class MarkdownSimulationTest {
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Product cheese = new Product("cheese", "Gouda 48+", 800, 7_687, true);
+
+    FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana, cheese);
+    LocalDate start = LocalDate.of(2020, 1, 1);
+
+    /**
+     * A year of sales of lamps, bananas and cheese, perishables sold between
+     * 0 and 4 days before their best before date at standard prices.
+     */
+    List<SalesRecord> history() {
+        Random random = new Random(7);
+        List<SalesRecord> history = new ArrayList<>();
+        for (int day = 0; day < 365; day++) {
+            LocalDate soldOn = start.plusDays(day);
+            for (int i = 0; i < 40; i++) {
+                Product p = i % 3 == 0 ? lamp : i % 3 == 1 ? banana : cheese;
+                int daysLeft = p.isPerishable() ? random.nextInt(5) : 0;
+                int price = p.isPerishable() ? PricingTable.STANDARD.price(p.getPrice(), daysLeft) : p.getPrice();
+                SalesRecord sr = new SalesRecord(p.getBarcode(), soldOn, price);
+                if (p.isPerishable()) {
+                    sr.setBestBeforeDate(soldOn.plusDays(daysLeft));
+                }
+                sr.increaseQuantity(random.nextInt(3));
+                history.add(sr);
+            }
+        }
+        // a promotion discount line, not in the catalog
+        history.add(new SalesRecord(42, start, -250));
+        return history;
+    }
+
+    @Test
+    void standardTableReproducesHistoricalRevenue() {
+        List<SalesRecord> history = history();
+        long historical = history.stream().mapToLong(sr -> (long) sr.getSalesPrice() * sr.getQuantity()).sum();
+        MarkdownSimulation simulation = new MarkdownSimulation(history, catalog, 1.5);
+
+        MarkdownSimulation.Result result = simulation.simulate(new MarkdownSimulation.Scenario("standard", PricingTable.STANDARD));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(simulation.size()).isEqualTo(history.size());
+            softly.assertThat(result.getRevenue()).isEqualTo(historical);
+            softly.assertThat(result.getWasteUnits()).isZero();
+        });
+    }
+
+    /**
+     * History as the cash register writes it: a perishable corrected with a
+     * best before date two months ahead, one left uncorrected and a lamp.
+     */
+    @Test
+    void historyFromCashRegisterReproducesRevenue() throws UnknownBestBeforeException {
+        ZoneId zone = ZoneId.of("Europe/Amsterdam");
+        Clock clock = Clock.fixed(ZonedDateTime.of(2021, 3, 31, 9, 0, 0, 0, zone).toInstant(), zone);
+        CashRegister register = new CashRegister(clock, line -> {
+        }, new UI() {
+            @Override
+            public void displayProduct(Product p) {
+            }
+
+            @Override
+            public void displayCalendar() {
+            }
+
+            @Override
+            public void displayErrorMessage(String message) {
+            }
+        }, catalog);
+
+        register.scan(banana.getBarcode());
+        register.correctSalesPrice(LocalDate.of(2021, 5, 31));
+        register.scan(cheese.getBarcode());
+        register.scan(lamp.getBarcode());
+        register.finalizeSalesTransaction();
+
+        List<SalesRecord> history = catalog.sold;
+        long historical = history.stream().mapToLong(sr -> (long) sr.getSalesPrice() * sr.getQuantity()).sum();
+        MarkdownSimulation.Result result = new MarkdownSimulation(history, catalog, 1.5)
+                .simulate(new MarkdownSimulation.Scenario("standard", PricingTable.STANDARD));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(history).extracting(SalesRecord::getBestBeforeDate)
+                    .contains(LocalDate.of(2021, 5, 31), LocalDate.MAX);
+            softly.assertThat(historical).isEqualTo(150 + 800 + 250);
+            softly.assertThat(result.getRevenue()).isEqualTo(historical);
+        });
+    }
+
+    @Test
+    void scenariosAreComparedOnRevenueAndWaste() {
+        MarkdownSimulation simulation = new MarkdownSimulation(history(), catalog, 1.5);
+
+        List<MarkdownSimulation.Result> results = simulation.run(List.of(
+                new MarkdownSimulation.Scenario("standard", PricingTable.STANDARD),
+                new MarkdownSimulation.Scenario("no markdown", new PricingTable(0)),
+                new MarkdownSimulation.Scenario("3 day tier", new PricingTable(0, 30, 60, 85)),
+                new MarkdownSimulation.Scenario("cheese only", PricingTable.STANDARD,
+                        Map.of(cheese.getBarcode(), new PricingTable(0)))));
+
+        MarkdownSimulation.Result standard = results.get(0);
+        MarkdownSimulation.Result noMarkdown = results.get(1);
+        MarkdownSimulation.Result threeDay = results.get(2);
+        MarkdownSimulation.Result cheeseOnly = results.get(3);
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(results).extracting(MarkdownSimulation.Result::getScenario)
+                    .containsExactly("standard", "no markdown", "3 day tier", "cheese only");
+            softly.assertThat(noMarkdown.getWasteUnits()).isGreaterThan(cheeseOnly.getWasteUnits());
+            softly.assertThat(cheeseOnly.getWasteUnits()).isGreaterThan(standard.getWasteUnits());
+            softly.assertThat(threeDay.getUnitsSold()).isGreaterThan(standard.getUnitsSold());
+            softly.assertThat(threeDay.getWasteUnits()).isZero();
+        });
+    }
+
+    @Test
+    void historyIsDecodedOnceForAllScenarios() {
+        MarkdownSimulation simulation = new MarkdownSimulation(history(), catalog, 1.0);
+        int lookupsAfterDecode = catalog.lookups;
+
+        List<MarkdownSimulation.Scenario> scenarios = new ArrayList<>();
+        for (int percent = 0; percent <= 100; percent += 10) {
+            scenarios.add(new MarkdownSimulation.Scenario("day0=" + percent, new PricingTable(0, percent, 65)));
+        }
+        List<MarkdownSimulation.Result> results = simulation.run(scenarios);
+
+        assertThat(lookupsAfterDecode).isEqualTo(4);
+        assertThat(catalog.lookups).isEqualTo(lookupsAfterDecode);
+        assertThat(results).hasSize(scenarios.size());
+    }
+}
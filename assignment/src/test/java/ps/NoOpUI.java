@@ -0,0 +1,20 @@
+package ps;
+
+/**
+ * UI stand-in that ignores everything. Unlike a mock it does not record
+ * invocations, so it is cheap and safe to call from many threads.
+ */
+class NoOpUI implements UI {
+
+    @Override
+    public void displayProduct(Product p) {
+    }
+
+    @Override
+    public void displayCalendar() {
+    }
+
+    @Override
+    public void displayErrorMessage(String message) {
+    }
+}
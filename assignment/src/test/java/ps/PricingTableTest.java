@@ -0,0 +1,48 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Markdown tiers.
+ */
+public class PricingTableTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "10,150",
+        "2,150",
+        "1,97",
+        "0,52",
+        "-1,0",})
+    void standardTiers(int daysLeft, int expectedPrice) {
+        assertThat(PricingTable.STANDARD.price(150, daysLeft)).isEqualTo(expectedPrice);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "3,100",
+        "2,90",
+        "1,70",
+        "0,40",
+        "-1,10",})
+    void threeDayTier(int daysLeft, int expectedPercent) {
+        PricingTable table = new PricingTable(10, 40, 70, 90);
+        assertThat(table.percent(daysLeft)).isEqualTo(expectedPercent);
+    }
+
+    @Test
+    void negativePercentageIsRejected() {
+        assertThatThrownBy(() -> new PricingTable(0, 35, -1))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void toStringShowsTiers() {
+        assertThat(PricingTable.STANDARD.toString()).isEqualTo("PricingTable{overdue=0, 0:35, 1:65}");
+    }
+}
@@ -45,4 +45,20 @@ public class ProductTest {
                 break;
         }
     }
+
+    /**
+     * Products are equal when their bar codes are equal, whatever the
+     * other fields say.
+     */
+    @Test
+    void equalsAndHashCodeOnBarcode() {
+        Product p = new Product( "fyffes", "Fyffes Bananen", 100, 384736876, true );
+        Product same = new Product( "fyffes", "Fyffes Bananen", 100, 384736876, true );
+        Product repriced = new Product( "fyffes", "Fyffes Bananen", 90, 384736876, true );
+        Product other = new Product( "fyffes", "Fyffes Bananen", 100, 384736877, true );
+
+        assertThat( p ).isEqualTo( same ).isEqualTo( repriced ).isNotEqualTo( other )
+                .isNotEqualTo( null ).isNotEqualTo( "fyffes" );
+        assertThat( p.hashCode() ).isEqualTo( same.hashCode() ).isEqualTo( repriced.hashCode() );
+    }
 }
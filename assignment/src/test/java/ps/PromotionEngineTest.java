@@ -0,0 +1,237 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Promotions and their incremental evaluation.
+ */
+public class PromotionEngineTest {
+
+    static final int LAMP = 1_234;
+    static final int BANANA = 9_234;
+    static final int CHEESE = 7_687;
+    static final int WINE = 5_555;
+
+    LocalDate today = LocalDate.now();
+
+    @ParameterizedTest
+    @CsvSource({
+        "1,0",
+        "2,0",
+        "3,250",
+        "5,250",
+        "6,500",})
+    void threeForTwo(int quantity, int expectedDiscount) {
+        PromotionEngine engine = new PromotionEngine(List.of(Promotion.multiBuy(1, "3 for 2 lamps", LAMP, 3, 2)));
+
+        engine.lineChanged(line(LAMP, 250, quantity));
+
+        assertThat(engine.getTotalDiscount()).isEqualTo(expectedDiscount);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "1,0",
+        "2,100",
+        "4,200",
+        "5,200",})
+    void twoForFixedPrice(int quantity, int expectedDiscount) {
+        PromotionEngine engine = new PromotionEngine(List.of(Promotion.forPrice(2, "2 for 2 euro", BANANA, 2, 200)));
+
+        engine.lineChanged(line(BANANA, 150, quantity));
+
+        assertThat(engine.getTotalDiscount()).isEqualTo(expectedDiscount);
+    }
+
+    @Test
+    void bundleNeedsAllMembers() {
+        PromotionEngine engine = new PromotionEngine(List.of(Promotion.bundle(3, "wine and cheese", 1_000, WINE, CHEESE)));
+        SalesRecord cheese = line(CHEESE, 800, 2);
+
+        engine.lineChanged(cheese);
+        int withoutWine = engine.getTotalDiscount();
+        engine.lineChanged(line(WINE, 500, 1));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(withoutWine).isZero();
+            softly.assertThat(engine.getTotalDiscount()).isEqualTo(300);
+            softly.assertThat(engine.getDiscounts()).hasSize(1);
+        });
+    }
+
+    @Test
+    void onlyPromotionsOfChangedBarcodeAreEvaluated() {
+        AtomicInteger lampEvaluations = new AtomicInteger();
+        AtomicInteger bananaEvaluations = new AtomicInteger();
+        PromotionEngine engine = new PromotionEngine(List.of(
+                new Promotion(1, "lamp", new int[]{LAMP}, lines -> lampEvaluations.incrementAndGet() * 0),
+                new Promotion(2, "banana", new int[]{BANANA}, lines -> bananaEvaluations.incrementAndGet() * 0)));
+
+        SalesRecord lamp = line(LAMP, 250, 1);
+        for (int i = 0; i < 10; i++) {
+            lamp.increaseQuantity(1);
+            engine.lineChanged(lamp);
+        }
+        engine.lineChanged(line(CHEESE, 800, 1));
+
+        assertThat(lampEvaluations.get()).isEqualTo(10);
+        assertThat(bananaEvaluations.get()).isZero();
+    }
+
+    @Test
+    void discountFollowsPriceChange() {
+        PromotionEngine engine = new PromotionEngine(List.of(Promotion.multiBuy(1, "3 for 2 bananas", BANANA, 3, 2)));
+        SalesRecord banana = line(BANANA, 150, 3);
+        engine.lineChanged(banana);
+
+        banana.setSalesPrice(52);
+        engine.lineChanged(banana);
+
+        assertThat(engine.getTotalDiscount()).isEqualTo(52);
+    }
+
+    @Test
+    void removedLineEndsBundle() {
+        PromotionEngine engine = new PromotionEngine(List.of(Promotion.bundle(3, "wine and cheese", 1_000, WINE, CHEESE)));
+        engine.lineChanged(line(CHEESE, 800, 1));
+        engine.lineChanged(line(WINE, 500, 1));
+
+        engine.lineRemoved(WINE);
+
+        assertThat(engine.getTotalDiscount()).isZero();
+        assertThat(engine.getDiscounts()).isEmpty();
+    }
+
+    /**
+     * A lamp counts towards the 3 for 2 or the bundle, not both; the larger
+     * discount is applied.
+     */
+    @ParameterizedTest
+    @CsvSource({
+        "3,1,250,3 for 2",
+        "2,1,100,bundle",
+        "4,1,250,3 for 2",
+        "3,0,250,3 for 2",})
+    void overlappingPromotionsDoNotStack(int lamps, int bananas, int expected, String applied) {
+        PromotionEngine engine = new PromotionEngine(List.of(
+                Promotion.multiBuy(1, "3 for 2", LAMP, 3, 2),
+                Promotion.bundle(2, "bundle", 300, LAMP, BANANA)));
+        engine.lineChanged(line(LAMP, 250, lamps));
+        if (bananas > 0) {
+            engine.lineChanged(line(BANANA, 150, bananas));
+        }
+
+        assertThat(engine.getTotalDiscount()).isEqualTo(expected);
+        assertThat(engine.getDiscounts().keySet()).extracting(Promotion::getDescription).containsExactly(applied);
+    }
+
+    @Test
+    void disjointPromotionsOfOneGroupBothApply() {
+        PromotionEngine engine = new PromotionEngine(List.of(
+                Promotion.multiBuy(1, "3 for 2 lamps", LAMP, 3, 2),
+                Promotion.bundle(2, "lamp and banana", 300, LAMP, BANANA),
+                Promotion.multiBuy(3, "3 for 2 bananas", BANANA, 3, 2)));
+        engine.lineChanged(line(LAMP, 250, 3));
+        engine.lineChanged(line(BANANA, 150, 3));
+
+        // both multi-buys (250 + 150) beat the bundle (100)
+        assertThat(engine.getTotalDiscount()).isEqualTo(400);
+        assertThat(engine.getDiscounts().keySet()).extracting(Promotion::getCode).containsExactlyInAnyOrder(1, 3);
+    }
+
+    /**
+     * A chain of 40 bundles, each sharing a bar code with the next, is one
+     * connected group. A scan evaluates only the bundles of the scanned bar
+     * code, at most two, and every other bundle applies. Removing the first
+     * bar code evaluates only the first bundle.
+     */
+    @Test
+    void largeConnectedGroupIsNotSearchedPerScan() {
+        int bundles = 40;
+        AtomicInteger evaluations = new AtomicInteger();
+        List<Promotion> chain = new ArrayList<>();
+        for (int i = 0; i < bundles; i++) {
+            int a = 5_000 + i;
+            int b = 5_000 + i + 1;
+            chain.add(new Promotion(100 + i, "bundle " + i, new int[]{a, b}, lines -> {
+                evaluations.incrementAndGet();
+                return lines.containsKey(a) && lines.containsKey(b) ? 100 : 0;
+            }));
+        }
+        PromotionEngine engine = new PromotionEngine(chain);
+
+        AtomicInteger maxPerScan = new AtomicInteger();
+        for (int barcode = 5_000; barcode <= 5_000 + bundles; barcode++) {
+            evaluations.set(0);
+            engine.lineChanged(line(barcode, 100, 1));
+            maxPerScan.accumulateAndGet(evaluations.get(), Math::max);
+        }
+        int fullBasket = engine.getTotalDiscount();
+        evaluations.set(0);
+        engine.lineRemoved(5_000);
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(maxPerScan).hasValue(2);
+            softly.assertThat(fullBasket).isEqualTo(bundles / 2 * 100);
+            softly.assertThat(evaluations).hasValue(1);
+            softly.assertThat(engine.getTotalDiscount()).isEqualTo(fullBasket - 100);
+            softly.assertThat(engine.getDiscounts().keySet()).extracting(Promotion::getCode)
+                    .contains(102, 138).doesNotContain(100, 101);
+        });
+    }
+
+    @Test
+    void discountRecordsAndClear() {
+        PromotionEngine engine = new PromotionEngine(List.of(
+                Promotion.multiBuy(11, "3 for 2 lamps", LAMP, 3, 2),
+                Promotion.forPrice(12, "2 for 2 euro", BANANA, 2, 200)));
+        engine.lineChanged(line(LAMP, 250, 3));
+        engine.lineChanged(line(BANANA, 150, 2));
+
+        List<SalesRecord> records = engine.discountRecords(today);
+        engine.clear();
+
+        assertThat(records)
+                .extracting(r -> tuple(r.getBarcode(), r.getSalesPrice(), r.getQuantity()))
+                .containsExactly(tuple(-11, -250, 1), tuple(-12, -100, 1));
+        assertThat(engine.getTotalDiscount()).isZero();
+        assertThat(engine.getDiscounts()).isEmpty();
+    }
+
+    @Test
+    void invalidPromotionsAreRejected() {
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThatThrownBy(() -> Promotion.multiBuy(1, "x", LAMP, 2, 2))
+                    .isExactlyInstanceOf(IllegalArgumentException.class);
+            softly.assertThatThrownBy(() -> Promotion.forPrice(1, "x", LAMP, 0, 100))
+                    .isExactlyInstanceOf(IllegalArgumentException.class);
+            softly.assertThatThrownBy(() -> Promotion.multiBuy(0, "x", LAMP, 3, 2))
+                    .isExactlyInstanceOf(IllegalArgumentException.class);
+            softly.assertThatThrownBy(() -> Promotion.bundle(1, "x", 100, LAMP))
+                    .isExactlyInstanceOf(IllegalArgumentException.class);
+        });
+    }
+
+    @Test
+    void toStringContainsCodeAndDescription() {
+        assertThat(Promotion.bundle(3, "wine and cheese", 1_000, WINE, CHEESE).toString())
+                .contains("3", "wine and cheese", "5555", "7687");
+    }
+
+    private SalesRecord line(int barcode, int price, int quantity) {
+        SalesRecord sr = new SalesRecord(barcode, today, price);
+        sr.increaseQuantity(quantity - 1);
+        return sr;
+    }
+}
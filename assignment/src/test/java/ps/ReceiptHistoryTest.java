@@ -0,0 +1,210 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Receipt history and its compressed indexes.
+ */
+public class ReceiptHistoryTest {
+
+    static final ZoneId ZONE = ZoneId.of("Europe/Amsterdam");
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Product cheese = new Product("cheese", "Gouda 48+", 800, 7_687, true);
+
+    MutableClock clock = new MutableClock(ZonedDateTime.of(2021, 3, 1, 9, 0, 0, 0, ZONE).toInstant(), ZONE);
+    ReceiptHistory history = new ReceiptHistory(clock, Period.ofDays(90));
+
+    @Test
+    void lookupByBarcodeAndDate() {
+        LocalDate day1 = LocalDate.now(clock);
+        Receipt r1 = history.record(List.of(sale(lamp, 1), sale(banana, 2)));
+        Receipt r2 = history.record(List.of(sale(cheese, 1)));
+        clock.advance(Duration.ofDays(1));
+        Receipt r3 = history.record(List.of(sale(lamp, 3)));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(history.containing(lamp.getBarcode())).containsExactly(r1, r3);
+            softly.assertThat(history.containing(lamp.getBarcode(), day1)).containsExactly(r1);
+            softly.assertThat(history.containing(lamp.getBarcode(), day1.plusDays(1))).containsExactly(r3);
+            softly.assertThat(history.containing(cheese.getBarcode(), day1.plusDays(1))).isEmpty();
+            softly.assertThat(history.soldOn(day1)).containsExactly(r1, r2);
+            softly.assertThat(history.containing(42)).isEmpty();
+            softly.assertThat(history.get(r2.getId())).isSameAs(r2);
+            softly.assertThat(r3.getSoldOnDate()).isEqualTo(day1.plusDays(1));
+        });
+    }
+
+    @Test
+    void basketOpenAcrossMidnightIsFiledUnderItsSoldOnDate() {
+        clock.advance(Duration.ofHours(14).plusMinutes(59));
+        LocalDate day1 = LocalDate.now(clock);
+        List<SalesRecord> basket = List.of(sale(lamp, 1), sale(banana, 1));
+        clock.advance(Duration.ofMinutes(2));
+        Receipt late = history.record(basket);
+        Receipt next = history.record(List.of(sale(lamp, 1)));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(late.getSoldOnDate()).isEqualTo(day1);
+            softly.assertThat(history.soldOn(day1)).containsExactly(late);
+            softly.assertThat(history.containing(lamp.getBarcode(), day1)).containsExactly(late);
+            softly.assertThat(history.containing(lamp.getBarcode(), day1.plusDays(1))).containsExactly(next);
+            softly.assertThat(history.containing(lamp.getBarcode())).containsExactly(late, next);
+        });
+    }
+
+    @Test
+    void receiptsAreImmutable() {
+        SalesRecord sr = sale(banana, 1);
+        Receipt r = history.record(List.of(sr));
+
+        sr.increaseQuantity(5);
+        sr.setSalesPrice(1);
+
+        assertThat(r.getLines()).extracting(Receipt.Line::getQuantity, Receipt.Line::getSalesPrice)
+                .containsExactly(tuple(1, 150));
+        assertThatThrownBy(() -> r.getLines().clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void receiptsOutsideRetentionAreDropped() {
+        LocalDate first = LocalDate.now(clock);
+        Receipt old = history.record(List.of(sale(lamp, 1), sale(cheese, 1)));
+        clock.advance(Duration.ofDays(30));
+        Receipt kept = history.record(List.of(sale(lamp, 1)));
+        clock.advance(Duration.ofDays(70));
+
+        Receipt recent = history.record(List.of(sale(banana, 1)));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(history.size()).isEqualTo(2);
+            softly.assertThat(history.get(old.getId())).isNull();
+            softly.assertThat(history.soldOn(first)).isEmpty();
+            softly.assertThat(history.containing(lamp.getBarcode())).containsExactly(kept);
+            softly.assertThat(history.containing(cheese.getBarcode())).isEmpty();
+            softly.assertThat(history.containing(banana.getBarcode())).containsExactly(recent);
+        });
+    }
+
+    @Test
+    void postingListIsCompressed() {
+        PostingList postings = new PostingList();
+        for (long id = 1_005_000; id < 1_010_000; id++) {
+            postings.add(id);
+        }
+
+        long[] ids = postings.toArray();
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(postings.size()).isEqualTo(5_000);
+            softly.assertThat(ids[0]).isEqualTo(1_005_000);
+            softly.assertThat(ids[4_999]).isEqualTo(1_009_999);
+            softly.assertThat(postings.encodedLength()).isLessThan(5_000 + 8);
+            softly.assertThatThrownBy(() -> postings.add(1_009_999))
+                    .isExactlyInstanceOf(IllegalArgumentException.class);
+        });
+    }
+
+    /**
+     * Three months of 400 receipts a day over a catalog of 500 products.
+     * Finding the receipts with a bar code on a date takes well under a
+     * millisecond on average.
+     */
+    @Test
+    void lookupsAreFastOverMonthsOfReceipts() {
+        Random random = new Random(11);
+        LocalDate start = LocalDate.now(clock);
+        for (int day = 0; day < 90; day++) {
+            for (int r = 0; r < 400; r++) {
+                List<SalesRecord> lines = new ArrayList<>();
+                int first = random.nextInt(500);
+                for (int l = 0; l < 5; l++) {
+                    lines.add(new SalesRecord(100_000 + (first + l * 37) % 500, null, 100));
+                }
+                history.record(lines);
+            }
+            clock.advance(Duration.ofDays(1));
+        }
+        assertThat(history.size()).isEqualTo(90 * 400);
+
+        int queries = 2_000;
+        int found = 0;
+        long t0 = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            found += history.containing(100_000 + random.nextInt(500), start.plusDays(random.nextInt(90))).size();
+        }
+        Duration perQuery = Duration.ofNanos((System.nanoTime() - t0) / queries);
+
+        assertThat(found).isPositive();
+        assertThat(perQuery).isLessThan(Duration.ofMillis(1));
+    }
+
+    /**
+     * A bar code on every receipt of three months: the query for one date
+     * decodes only that date's postings, so it costs no more than the day
+     * it returns.
+     */
+    @Test
+    void lookupOfPopularBarcodeOnDateDecodesOnlyThatDate() {
+        LocalDate start = LocalDate.now(clock);
+        for (int day = 0; day < 90; day++) {
+            for (int r = 0; r < 400; r++) {
+                history.record(List.of(new SalesRecord(lamp.getBarcode(), null, 250),
+                        new SalesRecord(100_000 + r, null, 100)));
+            }
+            clock.advance(Duration.ofDays(1));
+        }
+
+        int queries = 2_000;
+        int found = 0;
+        long t0 = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            found += history.containing(lamp.getBarcode(), start.plusDays(q % 90)).size();
+        }
+        Duration perQuery = Duration.ofNanos((System.nanoTime() - t0) / queries);
+
+        assertThat(found).isEqualTo(queries * 400);
+        assertThat(perQuery).isLessThan(Duration.ofMillis(1));
+        assertThat(history.containing(lamp.getBarcode())).hasSize(90 * 400);
+    }
+
+    @Test
+    void cashRegisterRecordsFinalizedTransactions() {
+        FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana);
+        CashRegister register = new CashRegister(clock, line -> {
+        }, new NoOpUI(), catalog);
+        register.setReceiptHistory(history);
+
+        register.scan(lamp.getBarcode());
+        register.scan(banana.getBarcode());
+        register.scan(lamp.getBarcode());
+        register.finalizeSalesTransaction();
+
+        List<Receipt> receipts = history.containing(lamp.getBarcode(), LocalDate.now(clock));
+        assertThat(receipts).hasSize(1);
+        assertThat(receipts.get(0).getLines())
+                .extracting(Receipt.Line::getBarcode, Receipt.Line::getQuantity)
+                .containsExactly(tuple(banana.getBarcode(), 1),
+                        tuple(lamp.getBarcode(), 2));
+    }
+
+    private SalesRecord sale(Product p, int quantity) {
+        SalesRecord sr = new SalesRecord(p.getBarcode(), LocalDate.now(clock), p.getPrice());
+        sr.increaseQuantity(quantity - 1);
+        return sr;
+    }
+}
@@ -0,0 +1,184 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Deadlines, hedged requests and the circuit breaker, using in-process
+ * catalogs with injected latency.
+ */
+public class ResilientSalesServiceTest {
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+
+    FreshProductSalesService snapshot = new FreshProductSalesService(lamp, banana);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Catalog stand-in that waits a latency taken from a distribution before
+     * answering, or fails when told so.
+     */
+    static class SlowCatalog extends FreshProductSalesService {
+
+        final LongSupplier latencyMillis;
+        final AtomicInteger calls = new AtomicInteger();
+        volatile boolean down = false;
+
+        SlowCatalog(LongSupplier latencyMillis, Product... products) {
+            super(products);
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public Product lookupProduct(int barcode) throws UnknownProductException {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis.getAsLong());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (down) {
+                throw new IllegalStateException("catalog down");
+            }
+            return super.lookupProduct(barcode);
+        }
+    }
+
+    /**
+     * 3% of the calls take 150 ms, the rest 2 ms. Sending a hedged request
+     * after the p95 latency cuts the tail: the 99th percentile drops from
+     * the slow path to close to the fast path.
+     */
+    @Test
+    void hedgingReducesTailLatency() throws UnknownProductException {
+        SlowCatalog primary = new SlowCatalog(tail(new Random(1)), lamp, banana);
+        SlowCatalog replica = new SlowCatalog(tail(new Random(2)), lamp, banana);
+        ResilientSalesService resilient = new ResilientSalesService(primary, replica, snapshot,
+                executor, Duration.ofSeconds(1), 5, Duration.ofSeconds(10));
+        int lookups = 300;
+
+        long[] direct = new long[lookups];
+        long[] hedged = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            long t0 = System.nanoTime();
+            primary.lookupProduct(lamp.getBarcode());
+            direct[i] = System.nanoTime() - t0;
+        }
+        for (int i = 0; i < lookups; i++) {
+            long t0 = System.nanoTime();
+            resilient.lookupProduct(lamp.getBarcode());
+            hedged[i] = System.nanoTime() - t0;
+        }
+
+        long directP99 = percentile(direct, 0.99);
+        long hedgedP99 = percentile(hedged, 0.99);
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(Duration.ofNanos(directP99)).isGreaterThan(Duration.ofMillis(100));
+            softly.assertThat(Duration.ofNanos(hedgedP99)).isLessThan(Duration.ofMillis(50));
+            softly.assertThat(resilient.getHedges()).isPositive();
+            softly.assertThat(resilient.getFallbacks()).isZero();
+        });
+    }
+
+    @Test
+    void deadlineFallsBackToSnapshot() throws UnknownProductException {
+        SlowCatalog primary = new SlowCatalog(() -> 500, lamp);
+        SlowCatalog replica = new SlowCatalog(() -> 500, lamp);
+        ResilientSalesService resilient = new ResilientSalesService(primary, replica, snapshot,
+                executor, Duration.ofMillis(50), 5, Duration.ofSeconds(10));
+
+        long t0 = System.nanoTime();
+        Product p = resilient.lookupProduct(lamp.getBarcode());
+        Duration took = Duration.ofNanos(System.nanoTime() - t0);
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(p).isEqualTo(lamp);
+            softly.assertThat(took).isLessThan(Duration.ofMillis(300));
+            softly.assertThat(resilient.getFallbacks()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void breakerOpensAfterConsecutiveFailuresAndRecovers() throws Exception {
+        SlowCatalog primary = new SlowCatalog(() -> 0, lamp);
+        SlowCatalog replica = new SlowCatalog(() -> 0, lamp);
+        primary.down = true;
+        replica.down = true;
+        ResilientSalesService resilient = new ResilientSalesService(primary, replica, snapshot,
+                executor, Duration.ofMillis(100), 3, Duration.ofMillis(200));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(resilient.lookupProduct(lamp.getBarcode())).isEqualTo(lamp);
+        }
+        int callsWhenOpened = primary.calls.get();
+        resilient.lookupProduct(lamp.getBarcode());
+        boolean openAfterThree = resilient.isOpen();
+        int callsWhileOpen = primary.calls.get() - callsWhenOpened;
+
+        primary.down = false;
+        Thread.sleep(250);
+        resilient.lookupProduct(lamp.getBarcode());
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(openAfterThree).isTrue();
+            softly.assertThat(callsWhileOpen).isZero();
+            softly.assertThat(resilient.isOpen()).isFalse();
+            softly.assertThat(resilient.getFallbacks()).isEqualTo(4);
+        });
+    }
+
+    @Test
+    void unknownProductIsAnAnswerNotAFailure() {
+        SlowCatalog primary = new SlowCatalog(() -> 0, lamp);
+        SlowCatalog replica = new SlowCatalog(() -> 0, lamp);
+        ResilientSalesService resilient = new ResilientSalesService(primary, replica, snapshot,
+                executor, Duration.ofMillis(200), 1, Duration.ofSeconds(10));
+
+        assertThatThrownBy(() -> resilient.lookupProduct(123))
+                .isExactlyInstanceOf(UnknownProductException.class);
+        assertThat(resilient.findProduct(123)).isNull();
+        assertThat(resilient.isOpen()).isFalse();
+        assertThat(resilient.getFallbacks()).isZero();
+    }
+
+    @Test
+    void soldGoesToPrimary() {
+        SlowCatalog primary = new SlowCatalog(() -> 0, lamp);
+        ResilientSalesService resilient = new ResilientSalesService(primary, snapshot, snapshot,
+                executor, Duration.ofMillis(200), 1, Duration.ofSeconds(10));
+        SalesRecord sr = new SalesRecord(lamp.getBarcode(), null, 250);
+
+        resilient.sold(sr);
+
+        assertThat(primary.sold).containsExactly(sr);
+    }
+
+    private static LongSupplier tail(Random random) {
+        return () -> random.nextInt(100) < 3 ? 150 : 2;
+    }
+
+    private static long percentile(long[] samples, double p) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * p) - 1];
+    }
+}
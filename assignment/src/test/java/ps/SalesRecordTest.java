@@ -69,4 +69,12 @@ public class SalesRecordTest {
             softly.assertThat( sr.getQuantity() ).as("Quantity after adding 5 must be 6").isEqualTo(6);
         } );
     }
+
+    @Test
+    public void testDecreaseQuantity() {
+        SalesRecord sr = new SalesRecord( 384736876, null, 100 );
+        sr.increaseQuantity( 5 );
+        sr.decreaseQuantity( 2 );
+        assertThat( sr.getQuantity() ).as( "Quantity after adding 5 and taking off 2 must be 4" ).isEqualTo( 4 );
+    }
 }
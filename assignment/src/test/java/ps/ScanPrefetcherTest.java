@@ -0,0 +1,188 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * Prefetcher learns successors from baskets and warms them after a scan.
+ */
+@ExtendWith(MockitoExtension.class)
+public class ScanPrefetcherTest {
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Product apple = new Product("elstar", "Elstar Appels, los", 100, 4_711, true);
+    Product cheese = new Product("cheese", "Gouda 48+", 800, 7_687, true);
+
+    FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana, apple, cheese);
+
+    @Mock
+    Printer printer;
+
+    @Mock
+    UI ui;
+
+    @Test
+    void keepsOnlyTopKSuccessorsMostFrequentFirst() {
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, Runnable::run, 2);
+
+        prefetcher.learn(List.of(9_234, 4_711));
+        prefetcher.learn(List.of(9_234, 4_711));
+        prefetcher.learn(List.of(9_234, 7_687));
+        prefetcher.learn(List.of(9_234, 1_234));
+
+        // lamp replaced cheese, the least frequent, and inherited its count
+        assertThat(prefetcher.successorsOf(9_234)).containsExactly(4_711, 1_234);
+        assertThat(prefetcher.successorsOf(4_711)).isEmpty();
+    }
+
+    @Test
+    void learnedSuccessorIsServedFromPrefetch() {
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, Runnable::run, 3);
+        prefetcher.learn(List.of(9_234, 4_711));
+
+        prefetcher.findProduct(9_234);
+        prefetcher.scanned(9_234);
+        Product next = prefetcher.findProduct(4_711);
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(next).isEqualTo(apple);
+            softly.assertThat(prefetcher.getHits()).isEqualTo(1);
+            softly.assertThat(prefetcher.getMisses()).isEqualTo(1);
+            softly.assertThat(prefetcher.getPrefetched()).isEqualTo(1);
+            softly.assertThat(prefetcher.getHitRate()).isEqualTo(0.5);
+        });
+    }
+
+    @Test
+    void unusedPrefetchIsCountedAsWasted() {
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, Runnable::run, 3);
+        prefetcher.learn(List.of(9_234, 4_711));
+
+        prefetcher.findProduct(9_234);
+        prefetcher.scanned(9_234);
+        prefetcher.basketFinished();
+
+        assertThat(prefetcher.getWasted()).isEqualTo(1);
+    }
+
+    @Test
+    void prefetchRunsOffTheScanThread() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, task -> executor.execute(() -> {
+            worker.set(Thread.currentThread());
+            task.run();
+            done.countDown();
+        }), 3);
+        prefetcher.learn(List.of(9_234, 4_711));
+
+        prefetcher.scanned(9_234);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+        assertThat(worker.get()).isNotSameAs(Thread.currentThread());
+        assertThat(prefetcher.getPrefetched()).isEqualTo(1);
+    }
+
+    @Test
+    void cashRegisterLearnsFromFinalizedBaskets() {
+        CashRegister register = new CashRegister(Clock.systemDefaultZone(), printer, ui, catalog);
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, Runnable::run, 3);
+        register.setPrefetcher(prefetcher);
+
+        register.scan(banana.getBarcode());
+        register.scan(apple.getBarcode());
+        register.finalizeSalesTransaction();
+        register.scan(banana.getBarcode());
+        register.scan(apple.getBarcode());
+        register.finalizeSalesTransaction();
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(prefetcher.getHits()).isEqualTo(1);
+            softly.assertThat(prefetcher.getMisses()).isEqualTo(3);
+            softly.assertThat(prefetcher.getWasted()).isZero();
+            softly.assertThat(catalog.sold).hasSize(4);
+        });
+    }
+
+    @Test
+    void repeatedScansOfPrefetchedProductAreAllHits() {
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, Runnable::run, 3);
+        prefetcher.learn(List.of(9_234, 4_711));
+
+        prefetcher.findProduct(9_234);
+        prefetcher.scanned(9_234);
+        for (int i = 0; i < 3; i++) {
+            prefetcher.findProduct(4_711);
+            prefetcher.scanned(4_711);
+        }
+        prefetcher.basketFinished();
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(prefetcher.getHits()).isEqualTo(3);
+            softly.assertThat(catalog.lookups).isEqualTo(2);
+            softly.assertThat(prefetcher.getWasted()).isZero();
+        });
+    }
+
+    @Test
+    void prefetchFinishingAfterBasketEndIsNotServed() {
+        List<Runnable> tasks = new ArrayList<>();
+        ScanPrefetcher prefetcher = new ScanPrefetcher(catalog, tasks::add, 3);
+        prefetcher.learn(List.of(9_234, 4_711));
+
+        prefetcher.findProduct(9_234);
+        prefetcher.scanned(9_234);
+        prefetcher.basketFinished();
+        // the prefetch of the finished basket completes only now
+        tasks.forEach(Runnable::run);
+        prefetcher.findProduct(4_711);
+        prefetcher.basketFinished();
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(prefetcher.getHits()).isZero();
+            softly.assertThat(prefetcher.getMisses()).isEqualTo(2);
+            softly.assertThat(prefetcher.getWasted()).isZero();
+        });
+    }
+
+    @Test
+    void catalogChangeDropsPrefetchedProducts() {
+        VersionedCatalog versioned = new VersionedCatalog(catalog);
+        versioned.apply(List.of(CatalogDelta.insert(banana), CatalogDelta.insert(apple)));
+        ScanPrefetcher prefetcher = new ScanPrefetcher(versioned, Runnable::run, 3,
+                () -> versioned.snapshot().getVersion());
+        prefetcher.learn(List.of(9_234, 4_711));
+
+        prefetcher.findProduct(9_234);
+        prefetcher.scanned(9_234);
+        versioned.apply(List.of(CatalogDelta.updatePrice(4_711, 90)));
+        Product next = prefetcher.findProduct(4_711);
+
+        assertThat(next.getPrice()).isEqualTo(90);
+        assertThat(prefetcher.getHits()).isZero();
+    }
+
+    @Test
+    void topKMustBePositive() {
+        assertThatThrownBy(() -> new ScanPrefetcher(catalog, Runnable::run, 0))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+    }
+}
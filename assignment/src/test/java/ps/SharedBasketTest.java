@@ -0,0 +1,240 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stress tests for the shared basket. Written in the style of jcstress: each
+ * round lets actors race on a fresh basket, the outcome of the round is
+ * recorded, and afterwards all observed outcomes must be acceptable.
+ */
+public class SharedBasketTest {
+
+    static final int ROUNDS = 2_000;
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Product cheese = new Product("cheese", "Gouda 48+", 800, 7_687, true);
+    Clock clock = Clock.systemDefaultZone();
+
+    ExecutorService actors = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        actors.shutdownNow();
+    }
+
+    /**
+     * Two scanners scan the same product as first scan of the transaction.
+     * Exactly one line with quantity 2 is acceptable.
+     */
+    @Test
+    void firstScanWins() throws Exception {
+        Map<String, Integer> outcomes = race(basket -> List.of(
+                () -> basket.scan(1, lamp.getBarcode()),
+                () -> basket.scan(2, lamp.getBarcode())),
+                sold -> sold.size() + " line(s), qty " + sold.get(0).getQuantity());
+
+        assertThat(outcomes).containsOnlyKeys("1 line(s), qty 2");
+    }
+
+    /**
+     * Each scanner corrects the price of its own perishable. The correction
+     * must never end up on the line of the other scanner.
+     */
+    @Test
+    void correctionAppliesToLastScanOfSameScanner() throws Exception {
+        LocalDate today = LocalDate.now(clock);
+        Map<String, Integer> outcomes = race(basket -> List.of(
+                () -> {
+                    basket.scan(1, banana.getBarcode());
+                    correct(basket, 1, today);
+                },
+                () -> {
+                    basket.scan(2, cheese.getBarcode());
+                    correct(basket, 2, today.plusDays(1));
+                }),
+                sold -> {
+                    StringBuilder sb = new StringBuilder();
+                    sold.stream().sorted((a, b) -> a.getBarcode() - b.getBarcode())
+                            .forEach(r -> sb.append(r.getBarcode()).append('=').append(r.getSalesPrice()).append(' '));
+                    return sb.toString().trim();
+                });
+
+        assertThat(outcomes).containsOnlyKeys("7687=520 9234=52");
+    }
+
+    /**
+     * Both scanners scan the same perishable and correct it with different
+     * dates. One line; price and best before date come from the same
+     * correction, either one may win.
+     */
+    @Test
+    void correctionsOfSameLineDoNotMix() throws Exception {
+        LocalDate today = LocalDate.now(clock);
+        Map<String, Integer> outcomes = race(basket -> List.of(
+                () -> {
+                    basket.scan(1, banana.getBarcode());
+                    correct(basket, 1, today);
+                },
+                () -> {
+                    basket.scan(2, banana.getBarcode());
+                    correct(basket, 2, today.plusDays(1));
+                }),
+                SharedBasketTest::describe);
+
+        assertThat(outcomes).isNotEmpty().containsOnlyKeys(
+                "9234=52 qty 2 bb+0",
+                "9234=97 qty 2 bb+1");
+    }
+
+    /**
+     * The scanners scan the same two perishables in opposite order, then
+     * correct: each correction lands on the product that scanner scanned
+     * last, never on the other scanner's.
+     */
+    @Test
+    void interleavedScansCorrectOwnLastScan() throws Exception {
+        LocalDate today = LocalDate.now(clock);
+        Map<String, Integer> outcomes = race(basket -> List.of(
+                () -> {
+                    basket.scan(1, banana.getBarcode());
+                    basket.scan(1, cheese.getBarcode());
+                    correct(basket, 1, today);
+                },
+                () -> {
+                    basket.scan(2, cheese.getBarcode());
+                    basket.scan(2, banana.getBarcode());
+                    correct(basket, 2, today.plusDays(1));
+                }),
+                SharedBasketTest::describe);
+
+        assertThat(outcomes).containsOnlyKeys("7687=280 qty 2 bb+0 9234=97 qty 2 bb+1");
+    }
+
+    /**
+     * Many concurrent increments of the same lines lose no update.
+     */
+    @Test
+    void noLostQuantityUpdates() throws Exception {
+        FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana, cheese);
+        SharedBasket basket = new SharedBasket(clock, line -> {
+        }, new NoOpUI(), catalog);
+        int scansPerScanner = 10_000;
+        CyclicBarrier start = new CyclicBarrier(4);
+        List<Future<?>> running = new ArrayList<>();
+        for (int s = 0; s < 4; s++) {
+            int scanner = s;
+            running.add(actors.submit(() -> {
+                start.await();
+                for (int i = 0; i < scansPerScanner; i++) {
+                    basket.scan(scanner, i % 2 == 0 ? lamp.getBarcode() : banana.getBarcode());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : running) {
+            f.get();
+        }
+        basket.finalizeSalesTransaction();
+
+        assertThat(catalog.sold)
+                .extracting(SalesRecord::getQuantity)
+                .containsExactly(2 * scansPerScanner, 2 * scansPerScanner);
+    }
+
+    /**
+     * Without contention the shared basket behaves like the CashRegister:
+     * perishables first, each group in order of first scan.
+     */
+    @Test
+    void receiptInScanOrderPerishablesFirst() {
+        List<String> lines = new ArrayList<>();
+        SharedBasket basket = new SharedBasket(clock, lines::add, new NoOpUI(),
+                new FreshProductSalesService(lamp, banana, cheese));
+
+        basket.scan(1, cheese.getBarcode());
+        basket.scan(2, lamp.getBarcode());
+        basket.scan(2, banana.getBarcode());
+        basket.scan(1, cheese.getBarcode());
+        basket.printReceipt();
+
+        assertThat(lines).containsExactly(
+                "Product: Gouda 48+, Sales price: 800, Quantity: 2",
+                "Product: Bananas Fyffes, Sales price: 150, Quantity: 1",
+                "Product: Led Lamp, Sales price: 250, Quantity: 1");
+    }
+
+    @Test
+    void nullBestBeforeThrows() {
+        SharedBasket basket = new SharedBasket(clock, line -> {
+        }, new NoOpUI(), new FreshProductSalesService(banana));
+        basket.scan(1, banana.getBarcode());
+
+        assertThatThrownBy(() -> basket.correctSalesPrice(1, null))
+                .isExactlyInstanceOf(UnknownBestBeforeException.class)
+                .hasMessageContaining("Best before date must not be null!");
+    }
+
+    private static String describe(List<SalesRecord> sold) {
+        StringBuilder sb = new StringBuilder();
+        sold.stream().sorted((a, b) -> a.getBarcode() - b.getBarcode())
+                .forEach(r -> sb.append(r.getBarcode()).append('=').append(r.getSalesPrice())
+                        .append(" qty ").append(r.getQuantity())
+                        .append(" bb+").append(r.getSoldOnDate().until(r.getBestBeforeDate()).getDays()).append(' '));
+        return sb.toString().trim();
+    }
+
+    private static void correct(SharedBasket basket, int scanner, LocalDate bestBefore) {
+        try {
+            basket.correctSalesPrice(scanner, bestBefore);
+        } catch (UnknownBestBeforeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Run ROUNDS rounds; in each round the actors for a fresh basket start
+     * together, then the basket is finalized and the outcome recorded.
+     */
+    private Map<String, Integer> race(Function<SharedBasket, List<Runnable>> actorsFor,
+            Function<List<SalesRecord>, String> outcome) throws Exception {
+        Map<String, Integer> outcomes = new TreeMap<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            FreshProductSalesService catalog = new FreshProductSalesService(lamp, banana, cheese);
+            SharedBasket basket = new SharedBasket(clock, line -> {
+            }, new NoOpUI(), catalog);
+            List<Runnable> roundActors = actorsFor.apply(basket);
+            CyclicBarrier start = new CyclicBarrier(roundActors.size());
+            List<Future<?>> running = new ArrayList<>();
+            for (Runnable actor : roundActors) {
+                running.add(actors.submit(() -> {
+                    start.await();
+                    actor.run();
+                    return null;
+                }));
+            }
+            for (Future<?> f : running) {
+                f.get();
+            }
+            basket.finalizeSalesTransaction();
+            outcomes.merge(outcome.apply(catalog.sold), 1, Integer::sum);
+        }
+        return outcomes;
+    }
+}
@@ -0,0 +1,320 @@
+package ps;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Drives a number of CashRegister lanes through a compressed trading day of
+ * 14 hours, from 10:30 till 00:30, so the last hour crosses midnight and the
+ * perishable markdowns shift a tier. Time is a {@link MutableClock} moved
+ * forward in steps of 10 minutes; in between, every lane checks out its share
+ * of baskets as fast as it can.
+ *
+ * Per simulated hour the scan latencies are recorded together with the
+ * collections done and the heap in use right after a full collection forced
+ * at the end of the hour. Comparing the
+ * first and last hours reveals slow degradation that short tests never show.
+ *
+ * The lanes share what a store shares: the catalog (receiving price updates
+ * during the day), the interning layer and the receipt history.
+ */
+class SoakHarness {
+
+    static final int HOURS = 14;
+    static final int STEPS_PER_HOUR = 6;
+    /** hours left out of the comparison, they include JIT warm-up and class loading */
+    static final int WARMUP_HOURS = 1;
+    static final ZoneId ZONE = ZoneId.of("Europe/Amsterdam");
+
+    private final int lanes;
+    private final int basketsPerLanePerHour;
+    private final long seed;
+    private UnaryOperator<SalesService> laneCatalog = UnaryOperator.identity();
+
+    /**
+     * Measurements of one simulated hour.
+     */
+    static final class Window {
+
+        final LocalDateTime start;
+        final LocalDateTime end;
+        final long[] scanNanos;
+        final long heapAfterGc;
+        final long gcCount;
+        final long gcMillis;
+        final int markdownLines;
+
+        Window(LocalDateTime start, LocalDateTime end, long[] scanNanos, long heapAfterGc,
+                long gcCount, long gcMillis, int markdownLines) {
+            this.start = start;
+            this.end = end;
+            this.scanNanos = scanNanos;
+            this.heapAfterGc = heapAfterGc;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.markdownLines = markdownLines;
+        }
+
+        long percentile(double p) {
+            if (scanNanos.length == 0) {
+                return 0;
+            }
+            return scanNanos[Math.max(0, (int) Math.ceil(scanNanos.length * p) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s-%s scans=%d p50=%dus p99=%dus p999=%dus heapAfterGc=%dkB gc=%d/%dms markdowns=%d",
+                    start.toLocalTime(), end.toLocalTime(), scanNanos.length,
+                    percentile(0.5) / 1_000, percentile(0.99) / 1_000, percentile(0.999) / 1_000,
+                    heapAfterGc / 1_024, gcCount, gcMillis, markdownLines);
+        }
+    }
+
+    /**
+     * Outcome of a soak run.
+     */
+    static final class Report {
+
+        final List<Window> windows;
+
+        Report(List<Window> windows) {
+            this.windows = windows;
+        }
+
+        /**
+         * Compare the first three hours after the warm-up hour and the last
+         * three hours.
+         *
+         * @param latencyFactor how many times slower the late p99 may be
+         * @param latencySlack  absolute slack on top of that, for noise
+         * @param heapGrowth    how much the heap after GC may grow
+         * @return descriptions of the drift found, empty when none
+         */
+        List<String> drift(double latencyFactor, Duration latencySlack, long heapGrowth) {
+            List<String> found = new ArrayList<>();
+            long early = p99(windows.subList(WARMUP_HOURS, WARMUP_HOURS + 3));
+            long late = p99(windows.subList(windows.size() - 3, windows.size()));
+            if (late > early * latencyFactor + latencySlack.toNanos()) {
+                found.add("scan p99 drifted from " + early / 1_000 + "us to " + late / 1_000 + "us");
+            }
+            long earlyHeap = windows.get(WARMUP_HOURS + 2).heapAfterGc;
+            long lateHeap = windows.get(windows.size() - 1).heapAfterGc;
+            if (earlyHeap < 0 || lateHeap < 0) {
+                found.add("heap after GC not sampled, explicit GC seems disabled");
+            } else if (lateHeap - earlyHeap > heapGrowth) {
+                found.add("heap after GC grew from " + earlyHeap / 1_024 + "kB to " + lateHeap / 1_024 + "kB");
+            }
+            return found;
+        }
+
+        private static long p99(List<Window> part) {
+            long[] all = part.stream().flatMapToLong(w -> Arrays.stream(w.scanNanos)).sorted().toArray();
+            return all.length == 0 ? 0 : all[Math.max(0, (int) Math.ceil(all.length * 0.99) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Window w : windows) {
+                sb.append(w).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Create a harness.
+     *
+     * @param lanes                 number of cash registers
+     * @param basketsPerLanePerHour baskets each lane checks out per simulated hour
+     * @param seed                  for the basket mix
+     */
+    SoakHarness(int lanes, int basketsPerLanePerHour, long seed) {
+        this.lanes = lanes;
+        this.basketsPerLanePerHour = basketsPerLanePerHour;
+        this.seed = seed;
+    }
+
+    /**
+     * Wrap the sales service each lane uses, e.g. to inject faults.
+     *
+     * @param laneCatalog decorator for the lanes' sales service
+     * @return this harness
+     */
+    SoakHarness withLaneCatalog(UnaryOperator<SalesService> laneCatalog) {
+        this.laneCatalog = laneCatalog;
+        return this;
+    }
+
+    /**
+     * Run the day.
+     *
+     * @return the measurements per hour
+     * @throws InterruptedException when interrupted
+     */
+    Report run() throws InterruptedException {
+        LocalDate today = LocalDate.of(2021, 3, 1);
+        MutableClock clock = new MutableClock(today.atTime(10, 30).atZone(ZONE).toInstant(), ZONE);
+        Random random = new Random(seed);
+
+        MarkdownCounter sales = new MarkdownCounter();
+        VersionedCatalog catalog = new VersionedCatalog(sales);
+        sales.catalog = catalog;
+        List<CatalogDelta> load = new ArrayList<>();
+        int[] barcodes = new int[2_000];
+        for (int i = 0; i < barcodes.length; i++) {
+            barcodes[i] = 8_710_000 + i;
+            load.add(CatalogDelta.insert(new Product("p" + i, "Product " + i, 50 + random.nextInt(1_000),
+                    barcodes[i], i % 10 < 3)));
+        }
+        catalog.apply(load);
+        SalesService shared = new InterningSalesService(catalog);
+        ReceiptHistory receipts = new ReceiptHistory(clock, Period.ofDays(1));
+        PromotionEngine[] engines = new PromotionEngine[lanes];
+        CashRegister[] registers = new CashRegister[lanes];
+        for (int l = 0; l < lanes; l++) {
+            registers[l] = new CashRegister(clock, line -> {
+            }, new NoOpUI(), laneCatalog.apply(shared));
+            engines[l] = new PromotionEngine(List.of(
+                    Promotion.multiBuy(1, "3 for 2", barcodes[0], 3, 2),
+                    Promotion.bundle(2, "bundle", 500, barcodes[1], barcodes[2])));
+            registers[l].setPromotionEngine(engines[l]);
+            registers[l].setReceiptHistory(receipts);
+        }
+
+        List<Window> windows = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(lanes);
+        try {
+            for (int hour = 0; hour < HOURS; hour++) {
+                LocalDateTime start = LocalDateTime.now(clock);
+                long[] gcBefore = gc();
+                sales.markdownLines.set(0);
+                List<long[]> latencies = new ArrayList<>();
+                for (int step = 0; step < STEPS_PER_HOUR; step++) {
+                    List<Callable<long[]>> work = new ArrayList<>();
+                    for (int l = 0; l < lanes; l++) {
+                        CashRegister register = registers[l];
+                        Random laneRandom = new Random(random.nextLong());
+                        int baskets = basketsPerLanePerHour / STEPS_PER_HOUR;
+                        work.add(() -> checkout(register, laneRandom, barcodes, baskets, today));
+                    }
+                    for (Future<long[]> f : pool.invokeAll(work)) {
+                        latencies.add(f.get());
+                    }
+                    // a few price changes arrive during the day
+                    catalog.apply(List.of(
+                            CatalogDelta.updatePrice(barcodes[random.nextInt(barcodes.length)], 50 + random.nextInt(1_000)),
+                            CatalogDelta.updatePrice(barcodes[random.nextInt(barcodes.length)], 50 + random.nextInt(1_000))));
+                    clock.advance(Duration.ofMinutes(60 / STEPS_PER_HOUR));
+                }
+                long[] gcAfter = gc();
+                long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+                windows.add(new Window(start, LocalDateTime.now(clock), all, heapAfterGc(),
+                        gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], sales.markdownLines.get()));
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("lane failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Report(windows);
+    }
+
+    /**
+     * Check out baskets on one lane: scans with popular products more likely,
+     * perishables get a best before date of today up to 3 days ahead, now and
+     * then the cashier voids a scan.
+     */
+    private static long[] checkout(CashRegister register, Random random, int[] barcodes, int baskets, LocalDate today)
+            throws UnknownBestBeforeException {
+        long[] latencies = new long[baskets * 40];
+        int n = 0;
+        for (int b = 0; b < baskets; b++) {
+            int size = 1 + (int) (-Math.log(1 - random.nextDouble()) * 11);
+            for (int i = 0; i < size && n < latencies.length; i++) {
+                // squared uniform: low indexes (popular products) dominate
+                double u = random.nextDouble();
+                int barcode = barcodes[(int) (u * u * barcodes.length)];
+                long t0 = System.nanoTime();
+                register.scan(barcode);
+                latencies[n++] = System.nanoTime() - t0;
+                if (((barcode - barcodes[0]) % 10) < 3) {
+                    register.correctSalesPrice(today.plusDays(random.nextInt(4)));
+                }
+                if (random.nextInt(50) == 0) {
+                    register.voidLast();
+                }
+            }
+            register.printReceipt();
+            register.finalizeSalesTransaction();
+        }
+        return Arrays.copyOf(latencies, n);
+    }
+
+    private static long[] gc() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    /**
+     * Force a collection and sample the heap in use right after it. The
+     * collection counts tell whether it really ran (explicit GC can be
+     * disabled).
+     *
+     * @return bytes in use, -1 if no collection could be forced
+     */
+    private static long heapAfterGc() {
+        long before = gc()[0];
+        for (int attempt = 0; attempt < 3; attempt++) {
+            System.gc();
+            if (gc()[0] > before) {
+                return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sales sink that counts the lines sold below catalogue price.
+     */
+    private static final class MarkdownCounter implements SalesService {
+
+        final AtomicInteger markdownLines = new AtomicInteger();
+        volatile VersionedCatalog catalog;
+
+        @Override
+        public Product lookupProduct(int barcode) throws UnknownProductException {
+            throw new UnknownProductException("This product is unknown");
+        }
+
+        @Override
+        public void sold(SalesRecord salesRecord) {
+            Product p = catalog.snapshot().lookup(salesRecord.getBarcode());
+            if (p != null && p.isPerishable() && salesRecord.getSalesPrice() < p.getPrice()) {
+                markdownLines.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the {@link SoakHarness} over a compressed trading day. The default
+ * load keeps the build fast and checks the harness itself; drift detection
+ * is tested on synthetic reports, as real timings in a short run are mostly
+ * noise. Pass -Dsoak.baskets=600 (baskets per lane per hour) for a real soak
+ * run, which also checks the measured drift and prints the report per hour.
+ */
+public class SoakTest {
+
+    static final int BASKETS = Integer.getInteger("soak.baskets", 30);
+    static final boolean SOAK_RUN = System.getProperty("soak.baskets") != null;
+
+    @Test
+    void tradingDayShowsNoDrift() throws InterruptedException {
+        SoakHarness.Report report = new SoakHarness(4, BASKETS, 36).run();
+        if (SOAK_RUN) {
+            System.out.print(report);
+        }
+
+        SoakHarness.Window last = report.windows.get(report.windows.size() - 1);
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(report.windows).hasSize(SoakHarness.HOURS)
+                    .allSatisfy(w -> assertThat(w.scanNanos).isNotEmpty());
+            softly.assertThat(report.windows.get(0).start.toLocalTime()).isEqualTo(LocalTime.of(10, 30));
+            softly.assertThat(last.end).isEqualTo(last.start.plusHours(1));
+            softly.assertThat(last.end.toLocalDate()).isAfter(last.start.toLocalDate());
+            softly.assertThat(report.windows).allSatisfy(w -> assertThat(w.markdownLines).isPositive());
+            if (SOAK_RUN) {
+                // generous bounds: the machine is noisy, a leak or a linear
+                // scan is not
+                softly.assertThat(report.drift(5, Duration.ofMillis(2), 64L << 20)).isEmpty();
+            }
+        });
+    }
+
+    /**
+     * A catalog that gets slower every hour must be flagged. Real timings,
+     * soak runs only.
+     */
+    @Test
+    void degradingLookupIsFlagged() throws InterruptedException {
+        assumeTrue(SOAK_RUN, "real timing, soak runs only");
+        SoakHarness.Report report = new SoakHarness(2, 12, 36)
+                .withLaneCatalog(DegradingSalesService::new)
+                .run();
+
+        assertThat(report.drift(3, Duration.ofMillis(1), Long.MAX_VALUE))
+                .singleElement().asString().startsWith("scan p99 drifted");
+    }
+
+    /**
+     * Slower late hours are flagged; a slow warm-up hour is not.
+     */
+    @Test
+    void latencyDriftIsFlagged() {
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(report(10_000, 100_000, 1_000_000, 0, 0).drift(3, Duration.ofNanos(100_000), Long.MAX_VALUE))
+                    .singleElement().asString().startsWith("scan p99 drifted");
+            softly.assertThat(report(1_000_000, 100_000, 100_000, 0, 0).drift(3, Duration.ofNanos(100_000), Long.MAX_VALUE))
+                    .isEmpty();
+        });
+    }
+
+    /**
+     * Heap growth is flagged, including growth from an empty heap; a
+     * missing sample is flagged rather than skipped.
+     */
+    @Test
+    void heapDriftIsFlagged() {
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(heapReport(0, 100L << 20).drift(5, Duration.ofMillis(2), 64L << 20))
+                    .singleElement().asString().startsWith("heap after GC grew");
+            softly.assertThat(heapReport(10L << 20, 20L << 20).drift(5, Duration.ofMillis(2), 64L << 20)).isEmpty();
+            softly.assertThat(heapReport(-1, 20L << 20).drift(5, Duration.ofMillis(2), 64L << 20))
+                    .singleElement().asString().startsWith("heap after GC not sampled");
+        });
+    }
+
+    private static SoakHarness.Report heapReport(long early, long late) {
+        return report(1_000, 1_000, 1_000, early, late);
+    }
+
+    /**
+     * A day of one scan per hour: the warm-up hour, then the first and the
+     * second half of the day.
+     */
+    private static SoakHarness.Report report(long warmupNanos, long earlyNanos, long lateNanos, long earlyHeap,
+            long lateHeap) {
+        List<SoakHarness.Window> windows = new ArrayList<>();
+        LocalDateTime t = LocalDateTime.of(2021, 3, 1, 10, 30);
+        for (int h = 0; h < SoakHarness.HOURS; h++) {
+            boolean early = h < SoakHarness.HOURS / 2;
+            long nanos = h < SoakHarness.WARMUP_HOURS ? warmupNanos : early ? earlyNanos : lateNanos;
+            windows.add(new SoakHarness.Window(t.plusHours(h), t.plusHours(h + 1), new long[]{nanos},
+                    early ? earlyHeap : lateHeap, 0, 0, 0));
+        }
+        return new SoakHarness.Report(windows);
+    }
+
+    @Test
+    void percentilesOfWindow() {
+        long[] nanos = new long[100];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = (i + 1) * 1_000L;
+        }
+        LocalDateTime t = LocalDateTime.of(2021, 3, 1, 10, 30);
+        SoakHarness.Window w = new SoakHarness.Window(t, t.plusHours(1), nanos, 0, 0, 0, 0);
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(w.percentile(0.5)).isEqualTo(50_000);
+            softly.assertThat(w.percentile(0.99)).isEqualTo(99_000);
+            softly.assertThat(w.percentile(1)).isEqualTo(100_000);
+        });
+    }
+
+    /**
+     * Fine for the first 1000 lookups, then spins 2 microseconds longer on
+     * every lookup.
+     */
+    private static final class DegradingSalesService implements SalesService {
+
+        private final SalesService delegate;
+        private int lookups;
+
+        DegradingSalesService(SalesService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Product lookupProduct(int barcode) throws UnknownProductException {
+            long until = System.nanoTime() + Math.max(0, lookups++ - 1_000) * 2_000L;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            return delegate.lookupProduct(barcode);
+        }
+
+        @Override
+        public void sold(SalesRecord salesRecord) {
+            delegate.sold(salesRecord);
+        }
+    }
+}
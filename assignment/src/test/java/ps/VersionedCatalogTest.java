@@ -0,0 +1,156 @@
+package ps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Copy on write catalog with delta batches.
+ */
+public class VersionedCatalogTest {
+
+    Product lamp = new Product("led lamp", "Led Lamp", 250, 1_234, false);
+    Product banana = new Product("banana", "Bananas Fyffes", 150, 9_234, true);
+    Product cheese = new Product("cheese", "Gouda 48+", 800, 7_687, true);
+
+    FreshProductSalesService sales = new FreshProductSalesService();
+    VersionedCatalog catalog = new VersionedCatalog(sales);
+
+    @Test
+    void insertUpdateDelete() throws UnknownProductException {
+        catalog.apply(List.of(CatalogDelta.insert(lamp), CatalogDelta.insert(banana)));
+        VersionedCatalog.Snapshot v2 = catalog.apply(List.of(
+                CatalogDelta.updatePrice(lamp.getBarcode(), 199),
+                CatalogDelta.delete(banana.getBarcode()),
+                CatalogDelta.delete(cheese.getBarcode())));
+
+        SoftAssertions.assertSoftly(softly -> {
+            softly.assertThat(v2.getVersion()).isEqualTo(2);
+            softly.assertThat(v2.size()).isEqualTo(1);
+            softly.assertThat(v2.lookup(lamp.getBarcode()).getPrice()).isEqualTo(199);
+            softly.assertThat(v2.lookup(lamp.getBarcode()).getDescription()).isEqualTo("Led Lamp");
+            softly.assertThat(v2.lookup(banana.getBarcode())).isNull();
+            softly.assertThatThrownBy(() -> catalog.lookupProduct(banana.getBarcode()))
+                    .isExactlyInstanceOf(UnknownProductException.class);
+        });
+    }
+
+    @Test
+    void readersKeepTheirSnapshot() {
+        VersionedCatalog.Snapshot v1 = catalog.apply(List.of(CatalogDelta.insert(lamp)));
+
+        catalog.apply(List.of(CatalogDelta.updatePrice(lamp.getBarcode(), 300)));
+
+        assertThat(v1.lookup(lamp.getBarcode()).getPrice()).isEqualTo(250);
+        assertThat(catalog.snapshot().lookup(lamp.getBarcode()).getPrice()).isEqualTo(300);
+    }
+
+    @Test
+    void failedBatchPublishesNothing() {
+        VersionedCatalog.Snapshot v1 = catalog.apply(List.of(CatalogDelta.insert(lamp)));
+
+        assertThatThrownBy(() -> catalog.apply(List.of(
+                CatalogDelta.insert(banana),
+                CatalogDelta.updatePrice(cheese.getBarcode(), 700))))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+        assertThat(catalog.snapshot()).isSameAs(v1);
+    }
+
+    /**
+     * Keys that collide in the low bits are pushed down and collapse again
+     * when removed.
+     */
+    @Test
+    void collidingBarcodes() {
+        int a = 0b00001;
+        int b = a | (1 << 5);
+        int c = a | (1 << 30);
+        catalog.apply(List.of(insert(a), insert(b), insert(c)));
+        VersionedCatalog.Snapshot afterDelete = catalog.apply(List.of(CatalogDelta.delete(b), CatalogDelta.delete(a)));
+
+        assertThat(afterDelete.lookup(c).getBarcode()).isEqualTo(c);
+        assertThat(afterDelete.lookup(a)).isNull();
+        assertThat(afterDelete.lookup(b)).isNull();
+        assertThat(afterDelete.size()).isEqualTo(1);
+    }
+
+    /**
+     * Updating a few products of a large catalog creates only the nodes on
+     * their paths; the rest is shared with the previous version.
+     */
+    @Test
+    void updateCostFollowsDeltaNotCatalogSize() {
+        Random random = new Random(3);
+        List<CatalogDelta> load = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            load.add(insert(8_700_000 + random.nextInt(10_000_000)));
+        }
+        VersionedCatalog.Snapshot big = catalog.apply(load);
+        int someBarcode = load.get(500).getBarcode();
+
+        VersionedCatalog.Snapshot next = catalog.apply(List.of(
+                CatalogDelta.updatePrice(someBarcode, 1),
+                CatalogDelta.insert(new Product("new", "New product", 99, 42, false))));
+
+        assertThat(VersionedCatalog.newNodes(big, next)).isLessThanOrEqualTo(2 * 7);
+        assertThat(next.size()).isEqualTo(big.size() + 1);
+    }
+
+    /**
+     * A batch changes two prices together. Readers working on one snapshot
+     * never see one price changed and the other not.
+     */
+    @Test
+    void concurrentReadersSeeWholeBatches() throws Exception {
+        catalog.apply(List.of(CatalogDelta.insert(lamp), CatalogDelta.insert(banana)));
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> torn = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            torn.add(readers.submit(() -> {
+                int seen = 0;
+                while (!stop.get()) {
+                    VersionedCatalog.Snapshot s = catalog.snapshot();
+                    int lampPrice = s.lookup(lamp.getBarcode()).getPrice();
+                    int bananaPrice = s.lookup(banana.getBarcode()).getPrice();
+                    if (lampPrice - bananaPrice != 100) {
+                        seen++;
+                    }
+                }
+                return seen;
+            }));
+        }
+        for (int i = 1; i <= 20_000; i++) {
+            catalog.apply(List.of(
+                    CatalogDelta.updatePrice(lamp.getBarcode(), 250 + i),
+                    CatalogDelta.updatePrice(banana.getBarcode(), 150 + i)));
+        }
+        stop.set(true);
+        for (Future<Integer> f : torn) {
+            assertThat(f.get()).isZero();
+        }
+        readers.shutdown();
+        assertThat(catalog.snapshot().getVersion()).isEqualTo(20_001);
+    }
+
+    @Test
+    void soldIsRegisteredAtSalesService() {
+        SalesRecord sr = new SalesRecord(lamp.getBarcode(), null, 250);
+        catalog.sold(sr);
+        assertThat(sales.sold).containsExactly(sr);
+    }
+
+    private static CatalogDelta insert(int barcode) {
+        return CatalogDelta.insert(new Product("p" + barcode, "Product " + barcode, 100, barcode, false));
+    }
+}